@@ -46,7 +46,7 @@ public class AniAction implements BaseAction {
 
         if (Objects.isNull(ani)) {
             RssTask.sync();
-            ThreadUtil.execute(() -> RssTask.download(new AtomicBoolean(true)));
+            ThreadUtil.execute(() -> RssTask.download(new AtomicBoolean(true), true));
             resultSuccessMsg("已开始刷新RSS");
             return;
         }
@@ -69,6 +69,8 @@ public class AniAction implements BaseAction {
         ThreadUtil.execute(() -> {
             try {
                 if (TorrentUtil.login()) {
+                    // 手动刷新时完整重新处理
+                    FeedStateUtil.rescan(downloadAni);
                     TorrentUtil.downloadAni(downloadAni);
                 }
             } catch (Exception e) {
@@ -164,32 +166,32 @@ public class AniAction implements BaseAction {
             ThreadUtil.execute(() -> {
                 List<File> downloadPaths = TorrentUtil.getDownloadPath(get);
                 File newDownloadPath = TorrentUtil.getDownloadPath(ani).get(0);
+                // 位置未发生改变的跳过
+                List<File> oldDownloadPaths = downloadPaths.stream()
+                        .filter(file -> !file.toString().equals(newDownloadPath.toString()))
+                        .toList();
                 Boolean login = TorrentUtil.login();
-                List<TorrentsInfo> torrentsInfos = new ArrayList<>();
-                if (login) {
-                    torrentsInfos = TorrentUtil.getTorrentsInfos();
-                }
-                for (File file : downloadPaths) {
-                    if (file.toString().equals(newDownloadPath.toString())) {
-                        // 位置未发生改变
-                        continue;
-                    }
+                TorrentUtil.Snapshot snapshot = login ? TorrentUtil.getSnapshot() : null;
+                List<TorrentsInfo> torrentsInfos = Objects.isNull(snapshot) ? List.of() : oldDownloadPaths.stream()
+                        .map(file -> snapshot.getByDownloadDir(file.toString()))
+                        .flatMap(List::stream)
+                        .toList();
+                // 修改保存位置
+                TorrentUtil.setSavePath(torrentsInfos, newDownloadPath.toString());
 
-                    for (TorrentsInfo torrentsInfo : torrentsInfos) {
-                        if (!torrentsInfo.getDownloadDir().equals(file.toString())) {
-                            // 旧位置不相同
-                            continue;
-                        }
-                        // 修改保存位置
-                        TorrentUtil.setSavePath(torrentsInfo, newDownloadPath.toString());
-                    }
+                boolean wait = !torrentsInfos.isEmpty();
+                for (File file : oldDownloadPaths) {
                     if (!file.exists()) {
                         continue;
                     }
                     if (file.isFile()) {
                         continue;
                     }
-                    ThreadUtil.sleep(3000);
+                    if (wait) {
+                        // 等待下载器移动完成
+                        ThreadUtil.sleep(3000);
+                        wait = false;
+                    }
                     FileUtil.mkdir(newDownloadPath);
                     File[] files = ObjectUtil.defaultIfNull(file.listFiles(), new File[]{});
                     for (File oldFile : files) {
@@ -288,22 +290,23 @@ public class AniAction implements BaseAction {
                     .toList();
 
             Boolean login = TorrentUtil.login();
-            List<TorrentsInfo> torrentsInfos = new ArrayList<>();
-            if (login) {
-                torrentsInfos = TorrentUtil.getTorrentsInfos();
-            }
+            TorrentUtil.Snapshot snapshot = login ? TorrentUtil.getSnapshot() : null;
+            List<TorrentsInfo> torrentsInfos = Objects.isNull(snapshot) ? List.of() : files.stream()
+                    .map(file -> snapshot.getByDownloadDir(file.toString()))
+                    .flatMap(List::stream)
+                    .toList();
+            TorrentUtil.delete(torrentsInfos, true);
+
+            boolean wait = !torrentsInfos.isEmpty();
             for (File file : files) {
-                List<TorrentsInfo> collect = torrentsInfos
-                        .stream()
-                        .filter(torrentsInfo -> torrentsInfo.getDownloadDir().equals(file.toString()))
-                        .toList();
-                for (TorrentsInfo torrentsInfo : collect) {
-                    TorrentUtil.delete(torrentsInfo, true, true);
-                }
                 if (!file.exists()) {
                     continue;
                 }
-                ThreadUtil.sleep(3000);
+                if (wait) {
+                    // 等待下载器删除完成
+                    ThreadUtil.sleep(3000);
+                    wait = false;
+                }
                 log.info("删除 {}", file);
                 FileUtil.del(file);
                 ClearCacheAction.clearParentFile(file);
@@ -5,7 +5,6 @@ import ani.rss.annotation.Path;
 import ani.rss.download.BaseDownload;
 import ani.rss.download.qBittorrent;
 import ani.rss.entity.*;
-import ani.rss.enums.StringEnum;
 import ani.rss.util.*;
 import cn.hutool.core.codec.Base64;
 import cn.hutool.core.collection.CollUtil;
@@ -23,7 +22,6 @@ import org.eclipse.bittorrent.TorrentFile;
 import java.io.File;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -45,22 +43,7 @@ public class CollectionAction implements BaseAction {
         long[] lengths = torrentFile.getLengths();
         AtomicInteger index = new AtomicInteger(0);
 
-        List<String> match = ani.getMatch();
-        List<String> exclude = ani.getExclude();
-        Boolean globalExclude = ani.getGlobalExclude();
-        Config config = ConfigUtil.CONFIG;
-        List<String> globalExcludeList = config.getExclude();
-
-        Function<String, String> map = s -> {
-            String subgroup = ReUtil.get(StringEnum.SUBGROUP_REG_STR, s, 1);
-            if (StrUtil.isBlank(subgroup)) {
-                return s;
-            }
-            if (subgroup.equals(ani.getSubgroup())) {
-                return ReUtil.get(StringEnum.SUBGROUP_REG_STR, s, 2);
-            }
-            return "";
-        };
+        FilterUtil.Filter filter = FilterUtil.getFilter(ani, ani.getSubgroup());
 
         return Arrays.stream(torrentFile.getFilenames())
                 .map(name -> {
@@ -78,25 +61,8 @@ public class CollectionAction implements BaseAction {
                         return false;
                     }
 
-                    // 排除
-                    if (!exclude.isEmpty()) {
-                        if (exclude.stream().map(map).filter(StrUtil::isNotBlank).anyMatch(s -> ReUtil.contains(s, name))) {
-                            return false;
-                        }
-                    }
-
-                    // 匹配
-                    if (!match.isEmpty()) {
-                        if (match.stream().map(map).filter(StrUtil::isNotBlank).anyMatch(s -> !ReUtil.contains(s, name))) {
-                            return false;
-                        }
-                    }
-
-                    // 全局排除
-                    if (globalExclude) {
-                        return globalExcludeList.stream().map(map).filter(StrUtil::isNotBlank).noneMatch(s -> ReUtil.contains(s, name));
-                    }
-                    return true;
+                    // 排除、匹配与全局排除
+                    return filter.test(name);
                 })
                 .map(item -> {
                     long length = item.getLength();
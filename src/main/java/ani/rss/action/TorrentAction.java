@@ -3,6 +3,7 @@ package ani.rss.action;
 import ani.rss.annotation.Auth;
 import ani.rss.annotation.Path;
 import ani.rss.entity.Ani;
+import ani.rss.task.RssTask;
 import ani.rss.util.AniUtil;
 import ani.rss.util.ServerUtil;
 import ani.rss.util.TorrentUtil;
@@ -61,6 +62,7 @@ public class TorrentAction implements BaseAction {
                 FileUtil.del(file);
             }
         }
+        RssTask.unsettle(ani);
         resultSuccessMsg("删除完成");
     }
 }
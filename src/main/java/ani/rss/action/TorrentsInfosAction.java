@@ -17,7 +17,8 @@ import java.util.List;
 public class TorrentsInfosAction implements BaseAction {
     @Override
     public void doAction(HttpServerRequest request, HttpServerResponse response) throws IOException {
-        List<TorrentsInfo> torrentsInfos = TorrentUtil.getTorrentsInfos();
+        // 页面每 3 秒刷新一次, 与后台任务共用快照
+        List<TorrentsInfo> torrentsInfos = TorrentUtil.getSnapshot(3000).getTorrentsInfos();
         resultSuccess(torrentsInfos);
     }
 }
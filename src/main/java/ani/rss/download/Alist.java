@@ -33,6 +33,11 @@ import java.util.stream.Stream;
 public class Alist implements BaseDownload {
     private Config config;
 
+    @Override
+    public Config getConfig() {
+        return config;
+    }
+
     @Override
     public Boolean login(Config config) {
         this.config = config;
@@ -89,7 +94,7 @@ public class Alist implements BaseDownload {
     }
 
     @Override
-    public Boolean download(Ani ani, Item item, String savePath, File torrentFile, Boolean ova) {
+    public String download(Ani ani, Item item, String savePath, File torrentFile, Boolean ova) {
         String magnet = TorrentUtil.getMagnet(torrentFile);
         String reName = item.getReName();
         String path = savePath + "/" + reName;
@@ -143,7 +148,7 @@ public class Alist implements BaseDownload {
                     // 已到达最大重试次数 5 次
                     if (retry == 5) {
                         log.error("离线下载失败 {}", error);
-                        return false;
+                        return null;
                     }
                     retry++;
                     taskRetry(tid);
@@ -152,7 +157,7 @@ public class Alist implements BaseDownload {
 
                 if (List.of(3, 4).contains(state)) {
                     log.error("离线任务已被取消 {}", reName);
-                    return false;
+                    return null;
                 }
 
                 // 成功
@@ -176,7 +181,7 @@ public class Alist implements BaseDownload {
                     .orElse(null);
 
             if (Objects.isNull(videoFile)) {
-                return false;
+                return null;
             }
 
             List<AlistFileInfo> subtitleList = alistFileInfos.stream()
@@ -241,11 +246,11 @@ public class Alist implements BaseDownload {
                     StrFormatter.format("{} 下载完成", item.getReName()),
                     MessageEnum.DOWNLOAD_END
             );
-            return true;
+            return tid;
         } catch (Exception e) {
             log.error(e.getMessage(), e);
         }
-        return false;
+        return null;
     }
 
     @Override
@@ -397,7 +402,7 @@ public class Alist implements BaseDownload {
         ThreadUtil.sleep(2000);
         String host = config.getHost();
         String password = config.getPassword();
-        return HttpReq.post(host + "/api/" + action, false)
+        return post(host + "/api/" + action)
                 .header(Header.AUTHORIZATION, password);
     }
 
@@ -6,31 +6,63 @@ import ani.rss.entity.Item;
 import ani.rss.entity.TorrentsInfo;
 import ani.rss.util.FilePathUtil;
 import ani.rss.util.GsonStatic;
-import ani.rss.util.HttpReq;
 import ani.rss.util.RenameCacheUtil;
+import ani.rss.util.TorrentUtil;
 import cn.hutool.core.codec.Base64;
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.io.IoUtil;
 import cn.hutool.core.io.resource.ResourceUtil;
 import cn.hutool.core.lang.Assert;
-import cn.hutool.core.text.StrFormatter;
 import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.ReUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.http.HttpResponse;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Aria2
  */
 @Slf4j
 public class Aria2 implements BaseDownload {
+    /**
+     * 请求模板
+     */
+    private static final Map<String, JsonObject> TEMPLATE_MAP = new ConcurrentHashMap<>();
+
     private Config config;
 
+    private WebSocket webSocket;
+
+    private String webSocketHost = "";
+
+    private long webSocketRetryTime = 0;
+
+    private boolean connecting = false;
+
+    @Override
+    public Config getConfig() {
+        return config;
+    }
+
     @Override
     public Boolean login(Config config) {
         this.config = config;
@@ -42,146 +74,417 @@ public class Aria2 implements BaseDownload {
             return false;
         }
 
-        String body = ResourceUtil.readUtf8Str("aria2/getGlobalStat.json");
-        body = StrFormatter.format(body, password);
-        return HttpReq.post(host + "/jsonrpc", false)
-                .body(body)
+        Boolean ok = post(host + "/jsonrpc")
+                .body(GsonStatic.toJson(call("getGlobalStat")))
                 .thenFunction(HttpResponse::isOk);
+        if (ok) {
+            listen();
+        }
+        return ok;
+    }
+
+    /**
+     * 通过 WebSocket 接收下载完成通知, 立即处理对应任务
+     * <p>
+     * 异步连接, 不阻塞登录。连接失败或断开时仍由 RenameTask 轮询处理, 下次登录时重新连接
+     */
+    private synchronized void listen() {
+        String host = config.getHost();
+        if (connecting && host.equals(webSocketHost)) {
+            return;
+        }
+        if (Objects.nonNull(webSocket) && !webSocket.isInputClosed() && host.equals(webSocketHost)) {
+            return;
+        }
+        if (Objects.nonNull(webSocket)) {
+            webSocket.abort();
+            webSocket = null;
+        }
+        if (host.equals(webSocketHost) && System.currentTimeMillis() < webSocketRetryTime) {
+            return;
+        }
+        webSocketHost = host;
+        connecting = true;
+        String url = ReUtil.replaceAll(host, "^http", "ws") + "/jsonrpc";
+        HttpClient.newHttpClient()
+                .newWebSocketBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .buildAsync(URI.create(url), new NotificationListener())
+                .whenComplete((ws, e) -> {
+                    synchronized (this) {
+                        connecting = false;
+                        if (Objects.nonNull(e)) {
+                            // 不支持 WebSocket 时避免每次登录都重新连接
+                            webSocketRetryTime = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10);
+                            log.debug("Aria2 WebSocket 连接失败, 将通过轮询处理 {}", e.getMessage());
+                            return;
+                        }
+                        if (!host.equals(webSocketHost)) {
+                            // 连接期间下载器已修改
+                            ws.abort();
+                            return;
+                        }
+                        webSocket = ws;
+                        log.info("Aria2 WebSocket 已连接 {}", url);
+                    }
+                });
+    }
+
+    /**
+     * 处理通知
+     * <p>
+     * bt 任务下载完成后会继续做种, onBtDownloadComplete 时状态仍为 active, 不在此处理,
+     * 做种期间由 RenameTask 轮询处理, 做种结束或停止时收到 onDownloadComplete / onDownloadStop 再立即处理
+     *
+     * @param method 通知类型
+     * @param gid    任务id
+     * @return 需要处理的任务, 无需处理时返回 null
+     */
+    TorrentsInfo onNotification(String method, String gid) {
+        log.debug("Aria2 通知 {} gid: {}", method, gid);
+        TorrentUtil.invalidate();
+        switch (method) {
+            case "aria2.onDownloadError" -> {
+                log.warn("Aria2 任务出错 gid: {}", gid);
+                return null;
+            }
+            case "aria2.onDownloadComplete", "aria2.onDownloadStop" -> {
+                TorrentsInfo torrentsInfo = getTorrentsInfo(gid);
+                if (Objects.isNull(torrentsInfo) || !TorrentUtil.isDownloaded(torrentsInfo)) {
+                    return null;
+                }
+                return torrentsInfo;
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 获取单个任务
+     *
+     * @param gid 任务id
+     * @return 不是 bt 任务时返回 null
+     */
+    public TorrentsInfo getTorrentsInfo(String gid) {
+        String host = config.getHost();
+        return post(host + "/jsonrpc")
+                .body(GsonStatic.toJson(call("tellStatus", gid)))
+                .thenFunction(res -> {
+                    Assert.isTrue(res.isOk(), "status: {}", res.getStatus());
+                    TorrentsInfo torrentsInfo = null;
+                    try (JsonReader reader = new JsonReader(IoUtil.getUtf8Reader(res.bodyStream()))) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (!reader.nextName().equals("result")) {
+                                reader.skipValue();
+                                continue;
+                            }
+                            torrentsInfo = readTorrentsInfo(reader);
+                        }
+                        reader.endObject();
+                    } catch (IOException e) {
+                        throw new IORuntimeException(e);
+                    }
+                    return torrentsInfo;
+                });
     }
 
     @Override
     public List<TorrentsInfo> getTorrentsInfos() {
         List<TorrentsInfo> torrentsInfos = new ArrayList<>();
-        ThreadUtil.sleep(1000);
         try {
-            torrentsInfos.addAll(getTorrentsInfos("aria2/tellActive.json"));
-            torrentsInfos.addAll(getTorrentsInfos("aria2/tellStopped.json"));
+            torrentsInfos.addAll(getTorrentsInfos(List.of(call("tellActive"), call("tellStopped"))));
         } catch (Exception e) {
             log.error(e.getMessage(), e);
         }
         return torrentsInfos;
     }
 
-    public List<TorrentsInfo> getTorrentsInfos(String type) {
+    /**
+     * 通过一次 system.multicall 获取多个任务列表
+     *
+     * @param calls tellActive, tellWaiting, tellStopped
+     * @return
+     */
+    public List<TorrentsInfo> getTorrentsInfos(List<JsonObject> calls) {
         String host = config.getHost();
-        String password = config.getPassword();
-        String body = ResourceUtil.readUtf8Str(type);
-        body = StrFormatter.format(body, password);
-        return HttpReq.post(host + "/jsonrpc", false)
-                .body(body)
+        return post(host + "/jsonrpc")
+                .body(GsonStatic.toJson(multicallBody(calls)))
                 .thenFunction(res -> {
                     Assert.isTrue(res.isOk(), "status: {}", res.getStatus());
-                    JsonObject jsonObject = GsonStatic.fromJson(res.body(), JsonObject.class);
-                    List<JsonElement> result = jsonObject.get("result").getAsJsonArray().asList();
                     List<TorrentsInfo> torrentsInfos = new ArrayList<>();
-                    for (JsonElement jsonElement : result) {
-                        JsonObject asJsonObject = jsonElement.getAsJsonObject();
-                        JsonElement bittorrent = asJsonObject.get("bittorrent");
-                        if (bittorrent.isJsonNull()) {
-                            continue;
+                    // 边读取边解析, 只保留需要的字段
+                    try (JsonReader reader = new JsonReader(IoUtil.getUtf8Reader(res.bodyStream()))) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (!reader.nextName().equals("result")) {
+                                reader.skipValue();
+                                continue;
+                            }
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                                    // 单个调用失败时为 {code, message}
+                                    JsonObject fault = GsonStatic.gson.fromJson(reader, JsonObject.class);
+                                    throw new IllegalStateException("Aria2 获取任务列表失败 " + fault);
+                                }
+                                // 每个调用的结果都被包装为只有一个元素的数组
+                                reader.beginArray();
+                                reader.beginArray();
+                                while (reader.hasNext()) {
+                                    TorrentsInfo torrentsInfo = readTorrentsInfo(reader);
+                                    if (Objects.nonNull(torrentsInfo)) {
+                                        torrentsInfos.add(torrentsInfo);
+                                    }
+                                }
+                                reader.endArray();
+                                reader.endArray();
+                            }
+                            reader.endArray();
                         }
-                        JsonElement info = bittorrent.getAsJsonObject()
-                                .get("info");
-                        if (Objects.isNull(info)) {
+                        reader.endObject();
+                    } catch (IOException e) {
+                        throw new IORuntimeException(e);
+                    }
+                    return torrentsInfos;
+                });
+    }
+
+    /**
+     * 通过一次 system.multicall 执行多个调用
+     *
+     * @param calls 由 {@link #call(String, Object...)} 生成的调用
+     * @return 各调用的结果, 失败的调用为 null
+     */
+    public List<JsonElement> multicall(List<JsonObject> calls) {
+        if (calls.isEmpty()) {
+            return List.of();
+        }
+        String host = config.getHost();
+        return post(host + "/jsonrpc")
+                .body(GsonStatic.toJson(multicallBody(calls)))
+                .thenFunction(res -> {
+                    Assert.isTrue(res.isOk(), "status: {}", res.getStatus());
+                    JsonArray result = GsonStatic.fromJson(res.body(), JsonObject.class).getAsJsonArray("result");
+                    List<JsonElement> list = new ArrayList<>();
+                    for (int i = 0; i < result.size(); i++) {
+                        JsonElement element = result.get(i);
+                        if (element.isJsonArray()) {
+                            list.add(element.getAsJsonArray().get(0));
                             continue;
                         }
-                        String name = info.getAsJsonObject()
-                                .get("name").getAsString();
-                        String infoHash = asJsonObject.get("infoHash").getAsString();
-                        String status = asJsonObject.get("status").getAsString();
-                        TorrentsInfo.State state = "complete".equals(status) ?
-                                TorrentsInfo.State.pausedUP : TorrentsInfo.State.downloading;
-                        String dir = asJsonObject.get("dir").getAsString();
-                        String gid = asJsonObject.get("gid").getAsString();
-
-                        List<String> files = asJsonObject.get("files")
-                                .getAsJsonArray()
-                                .asList()
-                                .stream().map(JsonElement::getAsJsonObject)
-                                .map(o -> o.get("path").getAsString())
-                                .toList();
-
-                        long size = asJsonObject.get("totalLength").getAsLong();
-                        long completed = asJsonObject.get("completedLength").getAsLong();
-
-                        TorrentsInfo torrentsInfo = new TorrentsInfo();
-                        torrentsInfo
-                                .progress(completed, size)
-                                .setTags(List.of())
-                                .setId(gid)
-                                .setName(name)
-                                .setHash(infoHash)
-                                .setState(state)
-                                .setDownloadDir(FilePathUtil.getAbsolutePath(dir))
-                                .setFiles(() -> files);
-                        torrentsInfos.add(torrentsInfo);
+                        log.error("Aria2 {} 失败 {}", calls.get(i).get("method").getAsString(), element);
+                        list.add(null);
                     }
-                    return torrentsInfos;
+                    return list;
                 });
     }
 
+    private static JsonObject multicallBody(List<JsonObject> calls) {
+        JsonArray methods = new JsonArray();
+        for (JsonObject call : calls) {
+            JsonObject method = new JsonObject();
+            method.add("methodName", call.get("method"));
+            method.add("params", call.get("params"));
+            methods.add(method);
+        }
+        JsonArray params = new JsonArray();
+        params.add(methods);
+
+        JsonObject body = new JsonObject();
+        body.addProperty("jsonrpc", "2.0");
+        body.addProperty("id", "qwer");
+        body.addProperty("method", "system.multicall");
+        body.add("params", params);
+        return body;
+    }
+
+    /**
+     * 由模板生成调用
+     * <p>
+     * 模板只读取解析一次, params 中的 "token:{}" 替换为密钥, 其余 "{}" 依次替换为 args
+     *
+     * @param name 模板名 aria2/{name}.json
+     * @param args 参数
+     * @return
+     */
+    public JsonObject call(String name, Object... args) {
+        JsonObject call = TEMPLATE_MAP.computeIfAbsent(name,
+                        k -> GsonStatic.fromJson(ResourceUtil.readUtf8Str("aria2/" + k + ".json"), JsonObject.class))
+                .deepCopy();
+        Iterator<Object> iterator = Arrays.asList(args).iterator();
+        call.add("params", fill(call.get("params"), iterator));
+        return call;
+    }
+
+    private JsonElement fill(JsonElement element, Iterator<Object> args) {
+        if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, fill(array.get(i), args));
+            }
+            return array;
+        }
+        if (element.isJsonObject()) {
+            JsonObject object = element.getAsJsonObject();
+            for (String key : List.copyOf(object.keySet())) {
+                object.add(key, fill(object.get(key), args));
+            }
+            return object;
+        }
+        if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isString()) {
+            return element;
+        }
+        String s = element.getAsString();
+        if (s.equals("token:{}")) {
+            return new JsonPrimitive("token:" + config.getPassword());
+        }
+        if (s.equals("{}")) {
+            return GsonStatic.gson.toJsonTree(args.next());
+        }
+        return element;
+    }
+
+    /**
+     * 读取一个任务
+     *
+     * @param reader
+     * @return 不是 bt 任务或还在获取元数据时返回 null
+     */
+    private static TorrentsInfo readTorrentsInfo(JsonReader reader) throws IOException {
+        String name = null;
+        String infoHash = "";
+        String status = "";
+        String dir = "";
+        String gid = "";
+        long size = 0;
+        long completed = 0;
+        List<String> files = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "gid" -> gid = reader.nextString();
+                case "infoHash" -> infoHash = reader.nextString();
+                case "status" -> status = reader.nextString();
+                case "dir" -> dir = reader.nextString();
+                case "totalLength" -> size = reader.nextLong();
+                case "completedLength" -> completed = reader.nextLong();
+                case "files" -> {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String path = readField(reader, "path");
+                        if (Objects.nonNull(path)) {
+                            files.add(path);
+                        }
+                    }
+                    reader.endArray();
+                }
+                case "bittorrent" -> {
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                        continue;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("info")) {
+                            name = readField(reader, "name");
+                            continue;
+                        }
+                        reader.skipValue();
+                    }
+                    reader.endObject();
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (Objects.isNull(name)) {
+            return null;
+        }
+
+        TorrentsInfo.State state = "complete".equals(status) ?
+                TorrentsInfo.State.pausedUP : TorrentsInfo.State.downloading;
+
+        TorrentsInfo torrentsInfo = new TorrentsInfo();
+        torrentsInfo
+                .progress(completed, size)
+                .setTags(List.of())
+                .setId(gid)
+                .setName(name)
+                .setHash(infoHash)
+                .setState(state)
+                .setDownloadDir(FilePathUtil.getAbsolutePath(dir))
+                .setFiles(() -> files);
+        return torrentsInfo;
+    }
+
+    /**
+     * 读取对象中的一个字符串字段, 跳过其余字段
+     */
+    private static String readField(JsonReader reader, String field) throws IOException {
+        String value = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(field) && reader.peek() == JsonToken.STRING) {
+                value = reader.nextString();
+                continue;
+            }
+            reader.skipValue();
+        }
+        reader.endObject();
+        return value;
+    }
 
     @Override
-    public Boolean download(Ani ani, Item item, String savePath, File torrentFile, Boolean ova) {
+    public String download(Ani ani, Item item, String savePath, File torrentFile, Boolean ova) {
         String name = item.getReName();
         String host = config.getHost();
-        String password = config.getPassword();
-        String body;
+        JsonObject call;
 
         String extName = FileUtil.extName(torrentFile);
         if (StrUtil.isBlank(extName)) {
-            return false;
+            return null;
         }
 
         if ("txt".equals(extName)) {
             log.error("Aria2 暂不支持磁力链接下载与重命名");
-            return false;
+            return null;
         } else {
-            body = ResourceUtil.readUtf8Str("aria2/addTorrent.json");
-            body = StrFormatter.format(body, password, Base64.encode(torrentFile), savePath);
+            call = call("addTorrent", Base64.encode(torrentFile), savePath);
         }
 
-        String id = HttpReq.post(host + "/jsonrpc", false)
-                .body(body)
+        String id = post(host + "/jsonrpc")
+                .body(GsonStatic.toJson(call))
                 .thenFunction(res -> GsonStatic.fromJson(res.body(), JsonObject.class).get("result").getAsString());
 
         log.info("aria2 添加下载 => name: {} id: {}", name, id);
 
-        Boolean watchErrorTorrent = config.getWatchErrorTorrent();
-
         if (!ova) {
             RenameCacheUtil.put(id, name);
         }
+        return StrUtil.emptyToNull(id);
+    }
 
-        if (!watchErrorTorrent) {
-            ThreadUtil.sleep(1000 * 10);
-            return true;
-        }
-
-        for (int i = 0; i < 3; i++) {
-            ThreadUtil.sleep(1000 * 10);
-            List<TorrentsInfo> torrentsInfos = getTorrentsInfos();
-            for (TorrentsInfo torrentsInfo : torrentsInfos) {
-                if (!torrentsInfo.getId().equals(id)) {
-                    continue;
-                }
-                return true;
-            }
-        }
-        return false;
+    @Override
+    public Boolean isAdded(String id, String hash, String name) {
+        String host = config.getHost();
+        return post(host + "/jsonrpc")
+                .body(GsonStatic.toJson(call("tellStatus", id)))
+                .thenFunction(res -> GsonStatic.fromJson(res.body(), JsonObject.class).has("result"));
     }
 
     @Override
     public Boolean delete(TorrentsInfo torrentsInfo, Boolean deleteFiles) {
         String host = config.getHost();
-        String password = config.getPassword();
         String id = torrentsInfo.getId();
-        String body = ResourceUtil.readUtf8Str("aria2/removeDownloadResult.json");
-        body = StrFormatter.format(body, password, id);
 
         try {
-            return HttpReq.post(host + "/jsonrpc", false)
-                    .body(body)
+            return post(host + "/jsonrpc")
+                    .body(GsonStatic.toJson(call("removeDownloadResult", id)))
                     .thenFunction(HttpResponse::isOk);
         } catch (Exception e) {
             log.error(e.getMessage(), e);
@@ -189,6 +492,19 @@ public class Aria2 implements BaseDownload {
         }
     }
 
+    @Override
+    public Boolean delete(List<TorrentsInfo> torrentsInfos, Boolean deleteFiles) {
+        List<JsonObject> calls = torrentsInfos.stream()
+                .map(torrentsInfo -> call("removeDownloadResult", torrentsInfo.getId()))
+                .toList();
+        try {
+            return multicall(calls).stream().allMatch(Objects::nonNull);
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            return false;
+        }
+    }
+
     @Override
     public void rename(TorrentsInfo torrentsInfo) {
         String id = torrentsInfo.getId();
@@ -249,14 +565,11 @@ public class Aria2 implements BaseDownload {
 
     @Override
     public void updateTrackers(Set<String> trackers) {
-        String trackersStr = CollUtil.join(trackers, "\\n");
+        String trackersStr = CollUtil.join(trackers, "\n");
         String host = config.getHost();
-        String password = config.getPassword();
-        String body = ResourceUtil.readUtf8Str("aria2/changeGlobalOption.json");
-        body = StrFormatter.format(body, password, trackersStr);
 
-        HttpReq.post(host + "/jsonrpc", false)
-                .body(body)
+        post(host + "/jsonrpc")
+                .body(GsonStatic.toJson(call("changeGlobalOption", trackersStr)))
                 .then(res -> {
                     if (res.isOk()) {
                         log.info("Aria2 更新Trackers完成 共{}条", trackers.size());
@@ -270,4 +583,55 @@ public class Aria2 implements BaseDownload {
     public void setSavePath(TorrentsInfo torrentsInfo, String path) {
         // api 不支持
     }
+
+    /**
+     * aria2.onDownloadComplete 等通知
+     */
+    private class NotificationListener implements WebSocket.Listener {
+        private final StringBuilder text = new StringBuilder();
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            text.append(data);
+            if (last) {
+                String message = text.toString();
+                text.setLength(0);
+                try {
+                    JsonObject jsonObject = GsonStatic.fromJson(message, JsonObject.class);
+                    JsonElement method = jsonObject.get("method");
+                    JsonElement params = jsonObject.get("params");
+                    if (Objects.nonNull(method) && Objects.nonNull(params)) {
+                        String gid = params.getAsJsonArray().get(0)
+                                .getAsJsonObject()
+                                .get("gid").getAsString();
+                        ThreadUtil.execute(() -> {
+                            try {
+                                TorrentsInfo torrentsInfo = onNotification(method.getAsString(), gid);
+                                if (Objects.nonNull(torrentsInfo)) {
+                                    TorrentUtil.process(torrentsInfo);
+                                }
+                            } catch (Exception e) {
+                                log.error(e.getMessage(), e);
+                            }
+                        });
+                    }
+                } catch (Exception e) {
+                    log.debug("无法解析 Aria2 通知 {}", message);
+                }
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            log.debug("Aria2 WebSocket 已断开 {} {}", statusCode, reason);
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            log.debug("Aria2 WebSocket 出现错误 {}", error.getMessage());
+        }
+    }
 }
@@ -4,8 +4,13 @@ import ani.rss.entity.Ani;
 import ani.rss.entity.Config;
 import ani.rss.entity.Item;
 import ani.rss.entity.TorrentsInfo;
+import ani.rss.util.ConfigUtil;
+import ani.rss.util.HttpReq;
+import ani.rss.util.RateLimitUtil;
 import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.http.HttpRequest;
 
 import java.io.File;
 import java.util.List;
@@ -46,9 +51,25 @@ public interface BaseDownload {
      * @param savePath    保存位置
      * @param torrentFile 种子文件
      * @param ova         是否剧场版/OVA
-     * @return 下载状态
+     * @return 下载器返回的任务id, 下载器不返回id时为空字符串, 添加失败时为 null
      */
-    Boolean download(Ani ani, Item item, String savePath, File torrentFile, Boolean ova);
+    String download(Ani ani, Item item, String savePath, File torrentFile, Boolean ova);
+
+    /**
+     * 刚添加的任务是否已出现在下载器中
+     *
+     * @param id   {@link #download} 返回的任务id
+     * @param hash 种子 hash
+     * @param name 任务名称
+     * @return 是否存在
+     */
+    default Boolean isAdded(String id, String hash, String name) {
+        return getTorrentsInfos()
+                .stream()
+                .anyMatch(torrentsInfo -> (StrUtil.isNotBlank(id) && id.equals(torrentsInfo.getId())) ||
+                        hash.equalsIgnoreCase(torrentsInfo.getHash()) ||
+                        name.equals(torrentsInfo.getName()));
+    }
 
     /**
      * 删除已完成任务
@@ -59,6 +80,21 @@ public interface BaseDownload {
      */
     Boolean delete(TorrentsInfo torrentsInfo, Boolean deleteFiles);
 
+    /**
+     * 批量删除任务
+     *
+     * @param torrentsInfos 任务
+     * @param deleteFiles   删除本地文件
+     * @return 是否全部删除成功
+     */
+    default Boolean delete(List<TorrentsInfo> torrentsInfos, Boolean deleteFiles) {
+        boolean ok = true;
+        for (TorrentsInfo torrentsInfo : torrentsInfos) {
+            ok &= delete(torrentsInfo, deleteFiles);
+        }
+        return ok;
+    }
+
     /**
      * 重命名
      *
@@ -75,6 +111,21 @@ public interface BaseDownload {
      */
     Boolean addTags(TorrentsInfo torrentsInfo, String tags);
 
+    /**
+     * 为多个任务添加标签
+     *
+     * @param torrentsInfos 任务
+     * @param tags          标签
+     * @return 是否全部成功
+     */
+    default Boolean addTags(List<TorrentsInfo> torrentsInfos, String tags) {
+        boolean ok = true;
+        for (TorrentsInfo torrentsInfo : torrentsInfos) {
+            ok &= addTags(torrentsInfo, tags);
+        }
+        return ok;
+    }
+
     /**
      * 自动更新 Trackers
      *
@@ -90,6 +141,41 @@ public interface BaseDownload {
      */
     void setSavePath(TorrentsInfo torrentsInfo, String path);
 
+    /**
+     * 批量修改保存位置
+     *
+     * @param torrentsInfos 任务
+     * @param path          位置
+     */
+    default void setSavePath(List<TorrentsInfo> torrentsInfos, String path) {
+        for (TorrentsInfo torrentsInfo : torrentsInfos) {
+            setSavePath(torrentsInfo, path);
+        }
+    }
+
+    /**
+     * 登录时使用的设置
+     *
+     * @return 未登录时为 null
+     */
+    Config getConfig();
+
+    /**
+     * 下载器请求, 每次请求前按实际请求的下载器限流
+     *
+     * @param url 请求地址
+     * @return
+     */
+    default HttpRequest post(String url) {
+        RateLimitUtil.acquireDownload(ObjectUtil.defaultIfNull(getConfig(), ConfigUtil.CONFIG));
+        return HttpReq.post(url, false);
+    }
+
+    default HttpRequest get(String url) {
+        RateLimitUtil.acquireDownload(ObjectUtil.defaultIfNull(getConfig(), ConfigUtil.CONFIG));
+        return HttpReq.get(url, false);
+    }
+
     /**
      * 获取重命名结果
      *
@@ -7,14 +7,15 @@ import ani.rss.entity.TorrentsInfo;
 import ani.rss.enums.TorrentsTags;
 import ani.rss.util.FilePathUtil;
 import ani.rss.util.GsonStatic;
-import ani.rss.util.HttpReq;
 import ani.rss.util.RenameCacheUtil;
 import cn.hutool.core.codec.Base64;
 import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.io.IoUtil;
 import cn.hutool.core.io.resource.ResourceUtil;
 import cn.hutool.core.lang.Assert;
 import cn.hutool.core.text.StrFormatter;
-import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.NumberUtil;
 import cn.hutool.core.util.ReUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.http.Header;
@@ -22,13 +23,16 @@ import cn.hutool.http.HttpResponse;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-import java.util.Set;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Transmission
@@ -40,6 +44,36 @@ public class Transmission implements BaseDownload {
     private String sessionId = "";
     private Config config;
 
+    /**
+     * 完整同步间隔
+     * <p>
+     * recently-active 只返回最近 60 秒内有变化的任务, 两次获取间隔较长时增量会遗漏变化, 由定期完整同步兜底
+     */
+    private static final long FULL_SYNC = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * torrent-get 请求模版, 使用时复制
+     */
+    private static final JsonObject TORRENT_GET =
+            GsonStatic.fromJson(ResourceUtil.readUtf8Str("transmission/torrent-get.json"), JsonObject.class);
+
+    /**
+     * 任务id -> 任务, 两次完整同步之间通过 recently-active 增量更新
+     */
+    private final Map<String, TorrentsInfo> syncTorrents = new LinkedHashMap<>();
+
+    /**
+     * 上次完整同步时间, 置 0 时下次获取进行完整同步
+     */
+    private long syncTime = 0;
+
+    private String syncHost = "";
+
+    @Override
+    public Config getConfig() {
+        return config;
+    }
+
     @Override
     public Boolean login(Config config) {
         this.config = config;
@@ -54,7 +88,7 @@ public class Transmission implements BaseDownload {
         }
 
         authorization = StrFormatter.format("Basic {}", Base64.encode(username + ":" + password));
-        Boolean isOk = HttpReq.get(host, false)
+        Boolean isOk = get(host)
                 .header(Header.AUTHORIZATION, authorization)
                 .thenFunction(HttpResponse::isOk);
         if (!isOk) {
@@ -66,77 +100,217 @@ public class Transmission implements BaseDownload {
     }
 
     @Override
-    public List<TorrentsInfo> getTorrentsInfos() {
-        String body = ResourceUtil.readUtf8Str("transmission/torrent-get.json");
+    public synchronized List<TorrentsInfo> getTorrentsInfos() {
+        long now = System.currentTimeMillis();
+        boolean full = !host.equals(syncHost) || now - syncTime > FULL_SYNC;
         try {
-            return HttpReq.post(host + "/transmission/rpc", false)
-                    .header(Header.AUTHORIZATION, authorization)
-                    .header("X-Transmission-Session-Id", sessionId)
-                    .body(body)
-                    .thenFunction(res -> {
-                        String id = res.header("X-Transmission-Session-Id");
-                        if (StrUtil.isNotBlank(id)) {
-                            sessionId = id;
-                            return getTorrentsInfos();
-                        }
-                        List<TorrentsInfo> torrentsInfos = new ArrayList<>();
-                        JsonObject jsonObject = GsonStatic.fromJson(res.body(), JsonObject.class);
-                        JsonArray torrents = jsonObject.get("arguments")
-                                .getAsJsonObject()
-                                .get("torrents")
-                                .getAsJsonArray();
-                        for (JsonElement jsonElement : torrents.asList()) {
-                            JsonObject item = jsonElement.getAsJsonObject();
-                            List<String> tags = item.get("labels").getAsJsonArray()
-                                    .asList().stream().map(JsonElement::getAsString)
-                                    .toList();
-                            if (!tags.contains(TorrentsTags.ANI_RSS.getValue())) {
-                                continue;
-                            }
-                            List<String> files = item.get("files").getAsJsonArray().asList()
-                                    .stream().map(JsonElement::getAsJsonObject)
-                                    .map(o -> o.get("name").getAsString())
-                                    .toList();
+            TorrentGet torrentGet = torrentGet(full ? null : new JsonPrimitive("recently-active"));
+            if (full) {
+                syncTorrents.clear();
+                syncHost = host;
+                syncTime = now;
+            }
+            for (TorrentsInfo torrentsInfo : torrentGet.getTorrents()) {
+                if (torrentsInfo.getTags().contains(TorrentsTags.ANI_RSS.getValue())) {
+                    syncTorrents.put(torrentsInfo.getId(), torrentsInfo);
+                } else {
+                    syncTorrents.remove(torrentsInfo.getId());
+                }
+            }
+            for (String id : torrentGet.getRemoved()) {
+                syncTorrents.remove(id);
+            }
+            return new ArrayList<>(syncTorrents.values());
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            syncTime = 0;
+        }
+        return new ArrayList<>();
+    }
 
-                            // 状态： https://github.com/jayzcoder/TrguiNG/blob/zh/src/rpc/transmission.ts
+    /**
+     * 获取单个任务并更新到任务列表中, 避免为此完整同步
+     *
+     * @param id 任务id
+     * @return 不存在时返回 null
+     */
+    private TorrentsInfo sync(String id) {
+        TorrentsInfo torrentsInfo = getTorrentsInfo(id);
+        synchronized (this) {
+            if (Objects.nonNull(torrentsInfo) && torrentsInfo.getTags().contains(TorrentsTags.ANI_RSS.getValue())) {
+                syncTorrents.put(id, torrentsInfo);
+            } else {
+                syncTorrents.remove(id);
+            }
+        }
+        return torrentsInfo;
+    }
 
-                            TorrentsInfo.State state = TorrentsInfo.State.downloading;
+    /**
+     * 获取单个任务
+     *
+     * @param id 任务id
+     * @return 不存在时返回 null
+     */
+    public TorrentsInfo getTorrentsInfo(String id) {
+        JsonArray ids = new JsonArray();
+        if (NumberUtil.isLong(id)) {
+            ids.add(Long.parseLong(id));
+        } else {
+            ids.add(id);
+        }
+        return torrentGet(ids).getTorrents()
+                .stream()
+                .filter(torrentsInfo -> torrentsInfo.getId().equals(id))
+                .findFirst()
+                .orElse(null);
+    }
 
-                            // 做种中
-                            if (item.get("status").getAsInt() == 6) {
-                                state = TorrentsInfo.State.stalledUP;
+    /**
+     * torrent-get
+     *
+     * @param ids 为 null 时获取全部任务
+     * @return
+     */
+    private TorrentGet torrentGet(JsonElement ids) {
+        JsonObject body = TORRENT_GET.deepCopy();
+        if (Objects.nonNull(ids)) {
+            body.getAsJsonObject("arguments").add("ids", ids);
+        }
+        return post(host + "/transmission/rpc")
+                .header(Header.AUTHORIZATION, authorization)
+                .header("X-Transmission-Session-Id", sessionId)
+                .body(GsonStatic.toJson(body))
+                .thenFunction(res -> {
+                    String id = res.header("X-Transmission-Session-Id");
+                    if (StrUtil.isNotBlank(id)) {
+                        sessionId = id;
+                        return torrentGet(ids);
+                    }
+                    Assert.isTrue(res.isOk(), "status: {}", res.getStatus());
+                    TorrentGet torrentGet = new TorrentGet();
+                    // 边读取边解析, 只保留需要的字段
+                    try (JsonReader reader = new JsonReader(IoUtil.getUtf8Reader(res.bodyStream()))) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (!reader.nextName().equals("arguments")) {
+                                reader.skipValue();
+                                continue;
                             }
-
-                            // 已完成
-                            if (item.get("isFinished").getAsBoolean()) {
-                                state = TorrentsInfo.State.pausedUP;
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                switch (reader.nextName()) {
+                                    case "torrents" -> {
+                                        reader.beginArray();
+                                        while (reader.hasNext()) {
+                                            torrentGet.getTorrents().add(readTorrentsInfo(reader));
+                                        }
+                                        reader.endArray();
+                                    }
+                                    case "removed" -> {
+                                        reader.beginArray();
+                                        while (reader.hasNext()) {
+                                            torrentGet.getRemoved().add(reader.nextString());
+                                        }
+                                        reader.endArray();
+                                    }
+                                    default -> reader.skipValue();
+                                }
                             }
+                            reader.endObject();
+                        }
+                        reader.endObject();
+                    } catch (IOException e) {
+                        throw new IORuntimeException(e);
+                    }
+                    return torrentGet;
+                });
+    }
 
-                            String downloadDir = item.get("downloadDir").getAsString();
-                            long size = item.get("totalSize").getAsLong();
-                            long completed = item.get("haveValid").getAsLong();
-
-                            TorrentsInfo torrentsInfo = new TorrentsInfo();
-                            torrentsInfo.progress(completed, size)
-                                    .setName(item.get("name").getAsString())
-                                    .setTags(tags)
-                                    .setHash(item.get("hashString").getAsString())
-                                    .setState(state)
-                                    .setId(item.get("id").getAsString())
-                                    .setDownloadDir(FilePathUtil.getAbsolutePath(downloadDir))
-                                    .setFiles(() -> files);
-                            torrentsInfos.add(torrentsInfo);
+    /**
+     * 读取一个任务
+     *
+     * @param reader
+     * @return
+     */
+    private static TorrentsInfo readTorrentsInfo(JsonReader reader) throws IOException {
+        String name = "";
+        String hashString = "";
+        String id = "";
+        String downloadDir = "";
+        int status = 0;
+        boolean isFinished = false;
+        long size = 0;
+        long completed = 0;
+        List<String> tags = new ArrayList<>();
+        List<String> files = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name" -> name = reader.nextString();
+                case "hashString" -> hashString = reader.nextString();
+                case "id" -> id = reader.nextString();
+                case "downloadDir" -> downloadDir = reader.nextString();
+                case "status" -> status = reader.nextInt();
+                case "isFinished" -> isFinished = reader.nextBoolean();
+                case "totalSize" -> size = reader.nextLong();
+                case "haveValid" -> completed = reader.nextLong();
+                case "labels" -> {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        tags.add(reader.nextString());
+                    }
+                    reader.endArray();
+                }
+                case "files" -> {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (reader.nextName().equals("name")) {
+                                files.add(reader.nextString());
+                                continue;
+                            }
+                            reader.skipValue();
                         }
-                        return torrentsInfos;
-                    });
-        } catch (Exception e) {
-            log.error(e.getMessage(), e);
+                        reader.endObject();
+                    }
+                    reader.endArray();
+                }
+                default -> reader.skipValue();
+            }
         }
-        return new ArrayList<>();
+        reader.endObject();
+
+        // 状态： https://github.com/jayzcoder/TrguiNG/blob/zh/src/rpc/transmission.ts
+
+        TorrentsInfo.State state = TorrentsInfo.State.downloading;
+
+        // 做种中
+        if (status == 6) {
+            state = TorrentsInfo.State.stalledUP;
+        }
+
+        // 已完成
+        if (isFinished) {
+            state = TorrentsInfo.State.pausedUP;
+        }
+
+        TorrentsInfo torrentsInfo = new TorrentsInfo();
+        torrentsInfo.progress(completed, size)
+                .setName(name)
+                .setTags(tags)
+                .setHash(hashString)
+                .setState(state)
+                .setId(id)
+                .setDownloadDir(FilePathUtil.getAbsolutePath(downloadDir))
+                .setFiles(() -> files);
+        return torrentsInfo;
     }
 
     @Override
-    public Boolean download(Ani ani, Item item, String savePath, File torrentFile, Boolean ova) {
+    public String download(Ani ani, Item item, String savePath, File torrentFile, Boolean ova) {
         String name = item.getReName();
         Boolean master = item.getMaster();
         String subgroup = item.getSubgroup();
@@ -144,7 +318,7 @@ public class Transmission implements BaseDownload {
         String body = ResourceUtil.readUtf8Str("transmission/torrent-add.json");
         String extName = FileUtil.extName(torrentFile);
         if (StrUtil.isBlank(extName)) {
-            return false;
+            return null;
         }
 
         List<String> tags = new ArrayList<>();
@@ -168,57 +342,65 @@ public class Transmission implements BaseDownload {
             }
         }
 
-        String id = HttpReq.post(host + "/transmission/rpc", false)
+        String id = post(host + "/transmission/rpc")
                 .timeout(1000 * 60)
                 .header(Header.AUTHORIZATION, authorization)
                 .header("X-Transmission-Session-Id", sessionId)
                 .body(body)
                 .thenFunction(res -> {
-                    JsonObject jsonObject = GsonStatic.fromJson(res.body(), JsonObject.class);
-                    return jsonObject.getAsJsonObject("arguments")
-                            .getAsJsonObject("torrent-added")
-                            .get("id").getAsString();
+                    JsonObject arguments = GsonStatic.fromJson(res.body(), JsonObject.class)
+                            .getAsJsonObject("arguments");
+                    // 已存在时返回 torrent-duplicate
+                    JsonObject added = arguments.has("torrent-added") ?
+                            arguments.getAsJsonObject("torrent-added") : arguments.getAsJsonObject("torrent-duplicate");
+                    return added.get("id").getAsString();
                 });
 
         log.info("tr 添加下载 => name: {} id: {}", name, id);
-
-        Boolean watchErrorTorrent = config.getWatchErrorTorrent();
+        try {
+            sync(id);
+        } catch (Exception e) {
+            // 已添加成功, 由之后的同步获取
+            log.debug("获取新任务失败 {} {}", id, e.getMessage());
+        }
 
         if (!ova) {
             RenameCacheUtil.put(id, name);
         }
+        return id;
+    }
 
-        if (!watchErrorTorrent) {
-            ThreadUtil.sleep(1000 * 10);
-            return true;
-        }
-
-        for (int i = 0; i < 3; i++) {
-            ThreadUtil.sleep(1000 * 10);
-            List<TorrentsInfo> torrentsInfos = getTorrentsInfos();
-            Optional<TorrentsInfo> optionalTorrentsInfo = torrentsInfos
-                    .stream()
-                    .filter(torrentsInfo -> torrentsInfo.getId().equals(id))
-                    .findFirst();
-            if (optionalTorrentsInfo.isEmpty()) {
-                continue;
-            }
-            return true;
-        }
-
-        return false;
+    @Override
+    public Boolean isAdded(String id, String hash, String name) {
+        return Objects.nonNull(getTorrentsInfo(id));
     }
 
     @Override
     public Boolean delete(TorrentsInfo torrentsInfo, Boolean deleteFiles) {
+        return delete(List.of(torrentsInfo), deleteFiles);
+    }
+
+    @Override
+    public Boolean delete(List<TorrentsInfo> torrentsInfos, Boolean deleteFiles) {
+        if (torrentsInfos.isEmpty()) {
+            return true;
+        }
         String body = ResourceUtil.readUtf8Str("transmission/torrent-remove.json");
-        body = StrFormatter.format(body, torrentsInfo.getId(), deleteFiles);
+        body = StrFormatter.format(body, getIds(torrentsInfos), deleteFiles);
         try {
-            return HttpReq.post(host + "/transmission/rpc", false)
+            Boolean ok = post(host + "/transmission/rpc")
                     .header(Header.AUTHORIZATION, authorization)
                     .header("X-Transmission-Session-Id", sessionId)
                     .body(body)
                     .thenFunction(HttpResponse::isOk);
+            if (ok) {
+                synchronized (this) {
+                    for (TorrentsInfo torrentsInfo : torrentsInfos) {
+                        syncTorrents.remove(torrentsInfo.getId());
+                    }
+                }
+            }
+            return ok;
         } catch (Exception e) {
             log.error(e.getMessage(), e);
             return false;
@@ -243,48 +425,57 @@ public class Transmission implements BaseDownload {
             reName = reName + "." + extName;
         }
 
+        if (name.equals(reName)) {
+            RenameCacheUtil.remove(id);
+            return;
+        }
+
         String body = ResourceUtil.readUtf8Str("transmission/torrent-rename-path.json");
         body = StrFormatter.format(body, id, name, reName);
 
         log.info("重命名 {} ==> {}", name, reName);
 
-        Boolean ok = HttpReq.post(host + "/transmission/rpc", false)
+        Boolean ok = post(host + "/transmission/rpc")
                 .header(Header.AUTHORIZATION, authorization)
                 .header("X-Transmission-Session-Id", sessionId)
                 .body(body)
                 .thenFunction(HttpResponse::isOk);
         Assert.isTrue(ok, "重命名失败 {} ==> {}", name, reName);
-        RenameCacheUtil.remove(id);
 
-        for (int i = 0; i < 10; i++) {
-            ThreadUtil.sleep(1000);
-            Optional<TorrentsInfo> first = getTorrentsInfos().stream()
-                    .filter(info -> info.getId().equals(id))
-                    .findFirst();
-            if (first.isEmpty()) {
-                break;
-            }
-            if (first.get().getName().equals(reName)) {
-                return;
-            }
+        // 只确认一次, 未生效时保留重命名缓存, 由下次 RenameTask 再处理
+        TorrentsInfo info = sync(id);
+        if (Objects.nonNull(info) && !info.getName().equals(reName)) {
+            log.warn("重命名貌似出现了问题？{}", reName);
+            return;
         }
-        log.warn("重命名貌似出现了问题？{}", reName);
+        RenameCacheUtil.remove(id);
     }
 
     @Override
     public Boolean addTags(TorrentsInfo torrentsInfo, String tag) {
-        String id = torrentsInfo.getId();
-        List<String> tags = torrentsInfo.getTags();
-        List<String> strings = new ArrayList<>(tags);
-        strings.add(tag);
+        return addTags(List.of(torrentsInfo), tag);
+    }
 
-        String body = ResourceUtil.readUtf8Str("transmission/torrent-set.json");
-        body = StrFormatter.format(body, GsonStatic.toJson(strings), id);
-        return HttpReq.post(host + "/transmission/rpc", false)
-                .header(Header.AUTHORIZATION, authorization)
-                .header("X-Transmission-Session-Id", sessionId)
-                .body(body)
-                .thenFunction(HttpResponse::isOk);
+    @Override
+    public Boolean addTags(List<TorrentsInfo> torrentsInfos, String tag) {
+        // labels 会整体覆盖, 标签相同的任务合并为一次请求
+        Map<List<String>, List<TorrentsInfo>> map = new LinkedHashMap<>();
+        for (TorrentsInfo torrentsInfo : torrentsInfos) {
+            List<String> strings = new ArrayList<>(torrentsInfo.getTags());
+            strings.add(tag);
+            map.computeIfAbsent(strings, k -> new ArrayList<>()).add(torrentsInfo);
+        }
+        boolean ok = true;
+        for (Map.Entry<List<String>, List<TorrentsInfo>> entry : map.entrySet()) {
+            String body = ResourceUtil.readUtf8Str("transmission/torrent-set.json");
+            body = StrFormatter.format(body, GsonStatic.toJson(entry.getKey()), getIds(entry.getValue()));
+            ok &= post(host + "/transmission/rpc")
+                    .header(Header.AUTHORIZATION, authorization)
+                    .header("X-Transmission-Session-Id", sessionId)
+                    .body(body)
+                    .thenFunction(HttpResponse::isOk);
+        }
+        return ok;
     }
 
     @Override
@@ -294,13 +485,42 @@ public class Transmission implements BaseDownload {
 
     @Override
     public void setSavePath(TorrentsInfo torrentsInfo, String path) {
-        String id = torrentsInfo.getId();
+        setSavePath(List.of(torrentsInfo), path);
+    }
+
+    @Override
+    public void setSavePath(List<TorrentsInfo> torrentsInfos, String path) {
+        if (torrentsInfos.isEmpty()) {
+            return;
+        }
         String body = ResourceUtil.readUtf8Str("transmission/torrent-set-location.json");
-        body = StrFormatter.format(body, id, path);
-        HttpReq.post(host + "/transmission/rpc", false)
+        body = StrFormatter.format(body, getIds(torrentsInfos), path);
+        post(host + "/transmission/rpc")
                 .header(Header.AUTHORIZATION, authorization)
                 .header("X-Transmission-Session-Id", sessionId)
                 .body(body)
                 .thenFunction(HttpResponse::isOk);
     }
+
+    /**
+     * 多个任务的 id, 以 , 分隔, 用于填充模板中的 ids 数组
+     */
+    private static String getIds(List<TorrentsInfo> torrentsInfos) {
+        return torrentsInfos.stream()
+                .map(TorrentsInfo::getId)
+                .collect(Collectors.joining(","));
+    }
+
+    /**
+     * torrent-get 结果
+     */
+    @Data
+    public static class TorrentGet {
+        private List<TorrentsInfo> torrents = new ArrayList<>();
+
+        /**
+         * 已删除的任务id, 仅 recently-active 时返回
+         */
+        private List<String> removed = new ArrayList<>();
+    }
 }
@@ -10,11 +10,15 @@ import ani.rss.util.ExceptionUtil;
 import ani.rss.util.FilePathUtil;
 import ani.rss.util.GsonStatic;
 import ani.rss.util.HttpReq;
+import ani.rss.util.RateLimitUtil;
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.io.IoUtil;
 import cn.hutool.core.lang.Assert;
 import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.EnumUtil;
+import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.ReUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.http.HttpRequest;
@@ -22,12 +26,15 @@ import cn.hutool.http.HttpResponse;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 import lombok.Data;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * qBittorrent
@@ -36,6 +43,23 @@ import java.util.*;
 public class qBittorrent implements BaseDownload {
     private Config config;
 
+    /**
+     * 通过 sync/maindata 同步的任务列表 hash -> 任务
+     */
+    private final Map<String, SyncTorrent> syncTorrents = new LinkedHashMap<>();
+
+    /**
+     * 上次同步的响应id, 为 0 时完整同步
+     */
+    private long rid = 0;
+
+    private String syncHost = "";
+
+    @Override
+    public Config getConfig() {
+        return config;
+    }
+
     @Override
     public Boolean login(Config config) {
         this.config = config;
@@ -50,7 +74,7 @@ public class qBittorrent implements BaseDownload {
         }
 
         try {
-            return HttpReq.post(host + "/api/v2/auth/login", false)
+            return post(host + "/api/v2/auth/login")
                     .form("username", username)
                     .form("password", password)
                     .setFollowRedirects(true)
@@ -80,6 +104,7 @@ public class qBittorrent implements BaseDownload {
         String hash = torrentsInfo.getHash();
         String host = config.getHost();
 
+        RateLimitUtil.acquireDownload(config);
         return HttpReq.get(host + "/api/v2/torrents/files", false)
                 .form("hash", hash)
                 .thenFunction(res -> {
@@ -106,7 +131,7 @@ public class qBittorrent implements BaseDownload {
     }
 
     @Override
-    public Boolean download(Ani ani, Item item, String savePath, File torrentFile, Boolean ova) {
+    public String download(Ani ani, Item item, String savePath, File torrentFile, Boolean ova) {
         String name = item.getReName();
         Boolean master = item.getMaster();
         String subgroup = item.getSubgroup();
@@ -128,7 +153,7 @@ public class qBittorrent implements BaseDownload {
         Long upLimit = config.getUpLimit() * 1024;
         Long dlLimit = config.getDlLimit() * 1024;
 
-        HttpRequest httpRequest = HttpReq.post(host + "/api/v2/torrents/add", false)
+        HttpRequest httpRequest = post(host + "/api/v2/torrents/add")
                 .form("addToTopOfQueue", false)
                 .form("autoTMM", false)
                 .form("category", TorrentsTags.ANI_RSS.getValue())
@@ -166,32 +191,35 @@ public class qBittorrent implements BaseDownload {
                         .form("urls", "magnet:?xt=urn:btih:" + FileUtil.mainName(torrentFile));
             }
         }
-        httpRequest.thenFunction(HttpResponse::isOk);
-
-        String hash = FileUtil.mainName(torrentFile);
-        Boolean watchErrorTorrent = config.getWatchErrorTorrent();
-
-        if (!watchErrorTorrent) {
-            ThreadUtil.sleep(3000);
-            return true;
-        }
-
+        // 不返回任务 hash
+        return httpRequest.thenFunction(HttpResponse::isOk) ? "" : null;
+    }
 
-        for (int i = 0; i < 3; i++) {
-            ThreadUtil.sleep(1000 * 10);
-            List<TorrentsInfo> torrentsInfos = getTorrentsInfos();
-            Optional<TorrentsInfo> optionalTorrentsInfo = torrentsInfos
-                    .stream()
-                    .filter(torrentsInfo ->
-                            torrentsInfo.getHash().equals(hash) ||
-                                    torrentsInfo.getName().equals(name)
-                    )
-                    .findFirst();
-            if (optionalTorrentsInfo.isPresent()) {
-                return true;
-            }
+    /**
+     * 按 hash 查询, 未找到时由 {@link ani.rss.util.AddConfirmUtil} 退避后再次确认。
+     * 没有 hash 时按分类获取后匹配名称
+     */
+    @Override
+    public Boolean isAdded(String id, String hash, String name) {
+        String host = config.getHost();
+        if (StrUtil.isNotBlank(hash)) {
+            return get(host + "/api/v2/torrents/info")
+                    .form("hashes", hash)
+                    .thenFunction(res -> {
+                        Assert.isTrue(res.isOk(), "status: {}", res.getStatus());
+                        return !GsonStatic.fromJson(res.body(), JsonArray.class).isEmpty();
+                    });
         }
-        return false;
+        return get(host + "/api/v2/torrents/info")
+                .form("category", TorrentsTags.ANI_RSS.getValue())
+                .thenFunction(res -> {
+                    Assert.isTrue(res.isOk(), "status: {}", res.getStatus());
+                    return GsonStatic.fromJson(res.body(), JsonArray.class)
+                            .asList()
+                            .stream()
+                            .map(JsonElement::getAsJsonObject)
+                            .anyMatch(jsonObject -> name.equals(jsonObject.get("name").getAsString()));
+                });
     }
 
     /**
@@ -202,6 +230,7 @@ public class qBittorrent implements BaseDownload {
      */
     public static Boolean start(TorrentsInfo torrentsInfo, Config config) {
         String host = config.getHost();
+        RateLimitUtil.acquireDownload(config);
         boolean b = HttpReq.post(host + "/api/v2/torrents/start", false)
                 .form("hashes", torrentsInfo.getHash())
                 .thenFunction(HttpResponse::isOk);
@@ -209,121 +238,182 @@ public class qBittorrent implements BaseDownload {
             return true;
         }
 
+        RateLimitUtil.acquireDownload(config);
         return HttpReq.post(host + "/api/v2/torrents/resume", false)
                 .form("hashes", torrentsInfo.getHash())
                 .thenFunction(HttpResponse::isOk);
     }
 
     @Override
-    public List<TorrentsInfo> getTorrentsInfos() {
+    public synchronized List<TorrentsInfo> getTorrentsInfos() {
         String host = config.getHost();
+        if (!Objects.equals(host, syncHost)) {
+            // 切换了 qBittorrent
+            syncHost = host;
+            resetSync();
+        }
         try {
-            return HttpReq.get(host + "/api/v2/torrents/info", false)
-                    .thenFunction(res -> {
-                        List<TorrentsInfo> torrentsInfoList = new ArrayList<>();
-                        JsonArray jsonElements = GsonStatic.fromJson(res.body(), JsonArray.class);
-                        for (JsonElement jsonElement : jsonElements) {
-                            JsonObject jsonObject = jsonElement.getAsJsonObject();
-                            String tags = jsonObject.get("tags").getAsString();
-
-                            if (StrUtil.isBlank(tags)) {
-                                continue;
-                            }
-
-                            String hash = jsonObject.get("hash").getAsString();
-                            String name = jsonObject.get("name").getAsString();
-                            String savePath = jsonObject.get("save_path").getAsString();
-                            long completed = jsonObject.get("completed").getAsLong();
-                            long size = jsonObject.get("size").getAsLong();
-                            JsonElement state = jsonObject.get("state");
-
-                            List<String> tagList = StrUtil.split(tags, ",", true, true);
-
-                            TorrentsInfo torrentsInfo = new TorrentsInfo();
-
-                            torrentsInfo.setState(Objects.isNull(state) ?
-                                    TorrentsInfo.State.downloading : EnumUtil.fromString(TorrentsInfo.State.class, state.getAsString(), TorrentsInfo.State.downloading)
-                            );
-
-                            torrentsInfo
-                                    .progress(completed, size)
-                                    .setName(name)
-                                    .setHash(hash)
-                                    .setDownloadDir(FilePathUtil.getAbsolutePath(savePath))
-                                    .setTags(tagList)
-                                    .setFiles(() ->
-                                            files(torrentsInfo, true, config)
-                                                    .stream()
-                                                    .filter(fileEntity -> fileEntity.getPriority() > 0)
-                                                    .map(FileEntity::getName)
-                                                    .toList());
-                            // 包含标签
-                            if (tagList.contains(TorrentsTags.ANI_RSS.getValue())) {
-                                torrentsInfoList.add(torrentsInfo);
-                                continue;
-                            }
-
-                            JsonElement category = jsonObject.get("category");
-                            if (Objects.isNull(category)) {
-                                continue;
-                            }
-                            if (category.getAsString().equals(TorrentsTags.ANI_RSS.getValue())) {
-                                torrentsInfoList.add(torrentsInfo);
-                            }
+            get(host + "/api/v2/sync/maindata")
+                    .form("rid", rid)
+                    .then(res -> {
+                        Assert.isTrue(res.isOk(), "status: {}", res.getStatus());
+                        try (JsonReader reader = new JsonReader(IoUtil.getUtf8Reader(res.bodyStream()))) {
+                            sync(reader);
+                        } catch (IOException e) {
+                            throw new IORuntimeException(e);
                         }
-                        return torrentsInfoList;
                     });
         } catch (Exception e) {
             log.error(e.getMessage(), e);
+            resetSync();
+            return new ArrayList<>();
+        }
+
+        List<TorrentsInfo> torrentsInfoList = new ArrayList<>();
+        for (Map.Entry<String, SyncTorrent> entry : syncTorrents.entrySet()) {
+            SyncTorrent syncTorrent = entry.getValue();
+            String tags = syncTorrent.getTags();
+
+            if (StrUtil.isBlank(tags) || Objects.isNull(syncTorrent.getName())) {
+                continue;
+            }
+
+            List<String> tagList = StrUtil.split(tags, ",", true, true);
+
+            // 包含标签
+            if (!tagList.contains(TorrentsTags.ANI_RSS.getValue()) &&
+                    !TorrentsTags.ANI_RSS.getValue().equals(syncTorrent.getCategory())) {
+                continue;
+            }
+
+            String state = syncTorrent.getState();
+
+            TorrentsInfo torrentsInfo = new TorrentsInfo();
+
+            torrentsInfo.setState(Objects.isNull(state) ?
+                    TorrentsInfo.State.downloading : EnumUtil.fromString(TorrentsInfo.State.class, state, TorrentsInfo.State.downloading)
+            );
+
+            torrentsInfo
+                    .progress(ObjectUtil.defaultIfNull(syncTorrent.getCompleted(), 0L), ObjectUtil.defaultIfNull(syncTorrent.getSize(), 0L))
+                    .setName(syncTorrent.getName())
+                    .setHash(entry.getKey())
+                    .setDownloadDir(FilePathUtil.getAbsolutePath(syncTorrent.getSavePath()))
+                    .setTags(tagList)
+                    .setFiles(() ->
+                            files(torrentsInfo, true, config)
+                                    .stream()
+                                    .filter(fileEntity -> fileEntity.getPriority() > 0)
+                                    .map(FileEntity::getName)
+                                    .toList());
+            torrentsInfoList.add(torrentsInfo);
+        }
+        return torrentsInfoList;
+    }
+
+    /**
+     * 边读取边合并 sync/maindata 返回的增量数据, 只解析需要的字段
+     *
+     * @param reader
+     */
+    private void sync(JsonReader reader) throws IOException {
+        boolean fullUpdate = false;
+        long newRid = 0;
+        Map<String, SyncTorrent> torrents = new HashMap<>();
+        List<String> torrentsRemoved = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "rid" -> newRid = reader.nextLong();
+                case "full_update" -> fullUpdate = reader.nextBoolean();
+                case "torrents" -> {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        torrents.put(reader.nextName(), readSyncTorrent(reader));
+                    }
+                    reader.endObject();
+                }
+                case "torrents_removed" -> {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        torrentsRemoved.add(reader.nextString());
+                    }
+                    reader.endArray();
+                }
+                default -> reader.skipValue();
+            }
         }
-        return new ArrayList<>();
+        reader.endObject();
+
+        if (fullUpdate) {
+            syncTorrents.clear();
+        }
+        for (Map.Entry<String, SyncTorrent> entry : torrents.entrySet()) {
+            syncTorrents.computeIfAbsent(entry.getKey(), k -> new SyncTorrent())
+                    .merge(entry.getValue());
+        }
+        for (String hash : torrentsRemoved) {
+            syncTorrents.remove(hash);
+        }
+        rid = newRid;
+    }
+
+    private static SyncTorrent readSyncTorrent(JsonReader reader) throws IOException {
+        SyncTorrent syncTorrent = new SyncTorrent();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name" -> syncTorrent.setName(reader.nextString());
+                case "save_path" -> syncTorrent.setSavePath(reader.nextString());
+                case "completed" -> syncTorrent.setCompleted(reader.nextLong());
+                case "size" -> syncTorrent.setSize(reader.nextLong());
+                case "state" -> syncTorrent.setState(reader.nextString());
+                case "tags" -> syncTorrent.setTags(reader.nextString());
+                case "category" -> syncTorrent.setCategory(reader.nextString());
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return syncTorrent;
+    }
+
+    /**
+     * 下次获取时完整同步
+     */
+    private void resetSync() {
+        rid = 0;
+        syncTorrents.clear();
     }
 
     @Override
     public Boolean delete(TorrentsInfo torrentsInfo, Boolean deleteFiles) {
+        return delete(List.of(torrentsInfo), deleteFiles);
+    }
+
+    @Override
+    public Boolean delete(List<TorrentsInfo> torrentsInfos, Boolean deleteFiles) {
+        if (torrentsInfos.isEmpty()) {
+            return true;
+        }
         String host = config.getHost();
-        String name = torrentsInfo.getName();
-        String hash = torrentsInfo.getHash();
         try {
-            List<FileEntity> files = files(torrentsInfo, false, config);
-            boolean b = HttpReq.post(host + "/api/v2/torrents/delete", false)
-                    .form("hashes", hash)
+            // 剧场版不用进行残留的文件夹清理
+            Map<TorrentsInfo, List<FileEntity>> filesMap = new LinkedHashMap<>();
+            for (TorrentsInfo torrentsInfo : torrentsInfos) {
+                if (ReUtil.contains(StringEnum.SEASON_REG, torrentsInfo.getName())) {
+                    filesMap.put(torrentsInfo, files(torrentsInfo, false, config));
+                }
+            }
+            boolean b = post(host + "/api/v2/torrents/delete")
+                    .form("hashes", getHashes(torrentsInfos))
                     .form("deleteFiles", deleteFiles)
                     .thenFunction(HttpResponse::isOk);
             if (!b) {
                 return false;
             }
 
-            // 剧场版不用进行残留的文件夹清理
-            if (!ReUtil.contains(StringEnum.SEASON_REG, name)) {
-                return true;
-            }
-
-            String downloadDir = torrentsInfo.getDownloadDir();
-
-            List<File> dirList = files.stream()
-                    .map(FileEntity::getName)
-                    .map(File::new)
-                    .map(File::getParent)
-                    .filter(StrUtil::isNotBlank)
-                    .map(s -> downloadDir + "/" + s)
-                    .distinct()
-                    .map(File::new)
-                    .filter(File::exists)
-                    .filter(File::isDirectory)
-                    .toList();
-
-            // 清空剩余文件夹
-            for (File file : dirList) {
-                log.info("删除剩余文件夹: {}", file);
-                try {
-                    FileUtil.del(file);
-                } catch (Exception e) {
-                    log.info("删除失败: {}", file);
-                    log.error(e.getMessage(), e);
-                }
-            }
-
+            filesMap.forEach(this::clearDir);
             return true;
         } catch (Exception e) {
             log.error(e.getMessage(), e);
@@ -331,6 +421,47 @@ public class qBittorrent implements BaseDownload {
         }
     }
 
+    /**
+     * 清空删除任务后剩余的文件夹
+     *
+     * @param torrentsInfo 任务
+     * @param files        任务的文件
+     */
+    private void clearDir(TorrentsInfo torrentsInfo, List<FileEntity> files) {
+        String downloadDir = torrentsInfo.getDownloadDir();
+
+        List<File> dirList = files.stream()
+                .map(FileEntity::getName)
+                .map(File::new)
+                .map(File::getParent)
+                .filter(StrUtil::isNotBlank)
+                .map(s -> downloadDir + "/" + s)
+                .distinct()
+                .map(File::new)
+                .filter(File::exists)
+                .filter(File::isDirectory)
+                .toList();
+
+        for (File file : dirList) {
+            log.info("删除剩余文件夹: {}", file);
+            try {
+                FileUtil.del(file);
+            } catch (Exception e) {
+                log.info("删除失败: {}", file);
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 多个任务的 hash, 以 | 分隔
+     */
+    private static String getHashes(List<TorrentsInfo> torrentsInfos) {
+        return torrentsInfos.stream()
+                .map(TorrentsInfo::getHash)
+                .collect(Collectors.joining("|"));
+    }
+
     @Override
     public void rename(TorrentsInfo torrentsInfo) {
         String reName = torrentsInfo.getName();
@@ -367,7 +498,7 @@ public class qBittorrent implements BaseDownload {
             }
             if (newNames.contains(newPath)) {
                 // 停止不必要的文件下载
-                HttpReq.post(host + "/api/v2/torrents/filePrio", false)
+                post(host + "/api/v2/torrents/filePrio")
                         .form("hash", hash)
                         .form("id", fileEntity.getIndex())
                         .form("priority", 0)
@@ -383,7 +514,7 @@ public class qBittorrent implements BaseDownload {
 
             log.info("重命名 {} ==> {}", name, newPath);
 
-            Boolean b = HttpReq.post(host + "/api/v2/torrents/renameFile", false)
+            Boolean b = post(host + "/api/v2/torrents/renameFile")
                     .form("hash", hash)
                     .form("oldPath", name)
                     .form("newPath", newPath)
@@ -412,10 +543,17 @@ public class qBittorrent implements BaseDownload {
 
     @Override
     public Boolean addTags(TorrentsInfo torrentsInfo, String tags) {
+        return addTags(List.of(torrentsInfo), tags);
+    }
+
+    @Override
+    public Boolean addTags(List<TorrentsInfo> torrentsInfos, String tags) {
+        if (torrentsInfos.isEmpty()) {
+            return true;
+        }
         String host = config.getHost();
-        String hash = torrentsInfo.getHash();
-        return HttpReq.post(host + "/api/v2/torrents/addTags", false)
-                .form("hashes", hash)
+        return post(host + "/api/v2/torrents/addTags")
+                .form("hashes", getHashes(torrentsInfos))
                 .form("tags", tags)
                 .thenFunction(HttpResponse::isOk);
     }
@@ -423,7 +561,7 @@ public class qBittorrent implements BaseDownload {
     @Override
     public void updateTrackers(Set<String> trackers) {
         String host = config.getHost();
-        JsonObject preferences = HttpReq.get(host + "/api/v2/app/preferences", false)
+        JsonObject preferences = get(host + "/api/v2/app/preferences")
                 .thenFunction(res -> {
                     int status = res.getStatus();
                     boolean ok = res.isOk();
@@ -435,7 +573,7 @@ public class qBittorrent implements BaseDownload {
         preferences.addProperty("add_trackers", CollUtil.join(trackers, "\n"));
         preferences.addProperty("add_trackers_enabled", true);
 
-        HttpReq.post(host + "/api/v2/app/setPreferences", false)
+        post(host + "/api/v2/app/setPreferences")
                 .form("json", GsonStatic.toJson(preferences))
                 .then(res -> {
                     if (res.isOk()) {
@@ -449,13 +587,22 @@ public class qBittorrent implements BaseDownload {
 
     @Override
     public void setSavePath(TorrentsInfo torrentsInfo, String path) {
+        setSavePath(List.of(torrentsInfo), path);
+    }
+
+    @Override
+    public void setSavePath(List<TorrentsInfo> torrentsInfos, String path) {
+        if (torrentsInfos.isEmpty()) {
+            return;
+        }
         String host = config.getHost();
-        HttpReq.post(host + "/api/v2/torrents/setAutoManagement", false)
-                .form("hashes", torrentsInfo.getHash())
+        String hashes = getHashes(torrentsInfos);
+        post(host + "/api/v2/torrents/setAutoManagement")
+                .form("hashes", hashes)
                 .form("enable", false)
                 .thenFunction(HttpResponse::isOk);
-        HttpReq.post(host + "/api/v2/torrents/setSavePath", false)
-                .form("id", torrentsInfo.getHash())
+        post(host + "/api/v2/torrents/setSavePath")
+                .form("id", hashes)
                 .form("path", path)
                 .then(req -> {
                     if (!req.isOk()) {
@@ -465,6 +612,36 @@ public class qBittorrent implements BaseDownload {
     }
 
 
+    /**
+     * sync/maindata 中的任务, 只保留需要的字段
+     */
+    @Data
+    @Accessors(chain = true)
+    public static class SyncTorrent {
+        private String name;
+        private String savePath;
+        private Long completed;
+        private Long size;
+        private String state;
+        private String tags;
+        private String category;
+
+        /**
+         * 合并增量数据, 增量数据只包含发生变化的字段
+         *
+         * @param delta
+         */
+        public void merge(SyncTorrent delta) {
+            name = ObjectUtil.defaultIfNull(delta.name, name);
+            savePath = ObjectUtil.defaultIfNull(delta.savePath, savePath);
+            completed = ObjectUtil.defaultIfNull(delta.completed, completed);
+            size = ObjectUtil.defaultIfNull(delta.size, size);
+            state = ObjectUtil.defaultIfNull(delta.state, state);
+            tags = ObjectUtil.defaultIfNull(delta.tags, tags);
+            category = ObjectUtil.defaultIfNull(delta.category, category);
+        }
+    }
+
     @Data
     @Accessors(chain = true)
     public static class FileEntity {
@@ -88,6 +88,16 @@ public class Config implements Serializable {
      */
     private Boolean watchErrorTorrent;
 
+    /**
+     * 下载器每秒请求数
+     */
+    private Double downloadRateLimit;
+
+    /**
+     * 下载器突发请求数
+     */
+    private Integer downloadRateBurst;
+
     /**
      * 延迟下载
      */
@@ -128,6 +138,31 @@ public class Config implements Serializable {
      */
     private Integer rssTimeout;
 
+    /**
+     * rss 并发数
+     */
+    private Integer rssThreads;
+
+    /**
+     * rss 每个站点每秒请求数
+     */
+    private Double rssRateLimit;
+
+    /**
+     * 根据放送时间调整订阅的刷新频率
+     */
+    private Boolean adaptivePolling;
+
+    /**
+     * 放送时间之外的最大刷新间隔 分钟
+     */
+    private Integer adaptivePollingInterval;
+
+    /**
+     * 放送时段内的刷新间隔 分钟
+     */
+    private Integer adaptivePollingWindowInterval;
+
     /**
      * 文件已下载自动跳过
      */
@@ -6,20 +6,35 @@ import ani.rss.util.ConfigUtil;
 import ani.rss.util.ExceptionUtil;
 import ani.rss.util.TorrentUtil;
 import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 重命名
+ * <p>
+ * 对比前后两次的任务列表, 只处理新出现或状态、标签发生变化的任务
  */
 @Slf4j
 public class RenameTask extends Thread {
 
+    /**
+     * 完整处理所有任务的间隔, 防止遗漏
+     */
+    private static final long FULL_SCAN = TimeUnit.HOURS.toMillis(1);
+
     private final AtomicBoolean loop;
 
+    /**
+     * 任务 -> 上次处理时的状态
+     */
+    private final Map<String, String> stateMap = new HashMap<>();
+
+    private long fullScanTime = 0;
+
     public RenameTask(AtomicBoolean loop) {
         this.loop = loop;
     }
@@ -37,23 +52,7 @@ public class RenameTask extends Thread {
                 continue;
             }
             try {
-                List<TorrentsInfo> torrentsInfos = TorrentUtil.getTorrentsInfos();
-                for (TorrentsInfo torrentsInfo : torrentsInfos) {
-                    if (!loop.get()) {
-                        return;
-                    }
-                    Boolean deleteBackRSSOnly = config.getDeleteBackRSSOnly();
-                    try {
-                        TorrentUtil.rename(torrentsInfo);
-                        TorrentUtil.notification(torrentsInfo);
-                        if (deleteBackRSSOnly) {
-                            continue;
-                        }
-                        TorrentUtil.delete(torrentsInfo);
-                    } catch (Exception e) {
-                        log.error(e.getMessage(), e);
-                    }
-                }
+                process(TorrentUtil.getSnapshot().getTorrentsInfos());
             } catch (Exception e) {
                 String message = ExceptionUtil.getMessage(e);
                 log.error(message, e);
@@ -62,4 +61,55 @@ public class RenameTask extends Thread {
         }
         log.info("{} 任务已停止", getName());
     }
+
+    /**
+     * 处理发生变化的任务
+     *
+     * @param torrentsInfos 任务列表
+     */
+    private void process(List<TorrentsInfo> torrentsInfos) {
+        if (System.currentTimeMillis() - fullScanTime > FULL_SCAN) {
+            fullScanTime = System.currentTimeMillis();
+            stateMap.clear();
+        }
+
+        // 相关设置修改后全部重新处理
+        Config config = ConfigUtil.CONFIG;
+        String settings = StrUtil.join(",", config.getRename(), config.getDelete(), config.getDeleteFiles(),
+                config.getAwaitStalledUP(), config.getAlist(), config.getDeleteBackRSSOnly());
+
+        Set<String> keys = new HashSet<>();
+        int count = 0;
+        for (TorrentsInfo torrentsInfo : torrentsInfos) {
+            if (!loop.get()) {
+                return;
+            }
+            String key = StrUtil.blankToDefault(torrentsInfo.getHash(), torrentsInfo.getId());
+            keys.add(key);
+            String state = getState(torrentsInfo, settings);
+            if (state.equals(stateMap.get(key))) {
+                continue;
+            }
+            count++;
+            try {
+                TorrentUtil.process(torrentsInfo);
+                stateMap.put(key, state);
+            } catch (Exception e) {
+                // 不记录状态, 下次重试
+                log.error(e.getMessage(), e);
+            }
+        }
+        stateMap.keySet().retainAll(keys);
+        log.debug("{} 共 {} 个任务, 处理 {} 个", getName(), torrentsInfos.size(), count);
+    }
+
+    /**
+     * 影响处理结果的任务状态
+     */
+    private static String getState(TorrentsInfo torrentsInfo, String settings) {
+        List<String> tags = new ArrayList<>(Objects.requireNonNullElse(torrentsInfo.getTags(), List.of()));
+        Collections.sort(tags);
+        return StrUtil.join("\n", torrentsInfo.getState(), tags, torrentsInfo.getName(),
+                torrentsInfo.getDownloadDir(), settings);
+    }
 }
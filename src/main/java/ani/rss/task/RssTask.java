@@ -2,18 +2,22 @@ package ani.rss.task;
 
 import ani.rss.entity.Ani;
 import ani.rss.entity.Config;
-import ani.rss.util.AniUtil;
-import ani.rss.util.ConfigUtil;
-import ani.rss.util.ExceptionUtil;
-import ani.rss.util.TorrentUtil;
+import ani.rss.entity.Item;
+import ani.rss.util.*;
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
 import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.ObjectUtil;
+import lombok.Data;
+import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.Optional;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
 
 /**
  * RSS
@@ -21,33 +25,108 @@ import java.util.stream.Collectors;
 @Slf4j
 public class RssTask extends Thread {
     public static final AtomicBoolean download = new AtomicBoolean(false);
+
+    /**
+     * 订阅id -> 上次处理完毕时的摘要
+     * <p>
+     * 定时过期, 以便每天至少完整处理一次 (缺集、摸鱼等提醒)
+     */
+    private static final Cache<String, String> SETTLED_CACHE = CacheUtil.newTimedCache(TimeUnit.HOURS.toMillis(12));
     private final AtomicBoolean loop;
 
+    /**
+     * 删除种子记录等操作后, 下次轮询完整处理订阅
+     *
+     * @param ani
+     */
+    public static void unsettle(Ani ani) {
+        SETTLED_CACHE.remove(ani.getId());
+    }
+
     public RssTask(AtomicBoolean loop) {
         this.loop = loop;
     }
 
     public static void download(AtomicBoolean loop) {
+        download(loop, false);
+    }
+
+    /**
+     * 刷新订阅
+     *
+     * @param loop
+     * @param force 忽略放送时段, 刷新所有订阅
+     */
+    public static void download(AtomicBoolean loop, boolean force) {
+        ExecutorService executor = null;
         try {
             if (!TorrentUtil.login()) {
                 return;
             }
-            Set<String> ids = AniUtil.ANI_LIST
-                    .stream()
-                    .map(Ani::getId)
-                    .collect(Collectors.toSet());
-            for (String id : ids) {
+            List<Ani> anis = new ArrayList<>();
+            for (Ani ani : AniUtil.ANI_LIST) {
+                if (!ani.getEnable()) {
+                    log.debug("{} 未启用", ani.getTitle());
+                    continue;
+                }
+                if (!force && !ScheduleUtil.isDue(ani)) {
+                    continue;
+                }
+                anis.add(ani);
+            }
+            if (anis.isEmpty()) {
+                return;
+            }
+
+            Config config = ConfigUtil.CONFIG;
+            int rssThreads = Math.max(1, ObjectUtil.defaultIfNull(config.getRssThreads(), 4));
+
+            // 本次轮询内相同的rss只获取一次
+            FeedUtil.FeedCycle feedCycle = new FeedUtil.FeedCycle();
+
+            // 并行获取并解析rss, 站点的请求频率由 RateLimitUtil 控制
+            executor = ThreadUtil.newExecutor(Math.min(rssThreads, anis.size()));
+            CompletionService<RssResult> completionService = new ExecutorCompletionService<>(executor);
+            for (Ani ani : anis) {
+                completionService.submit(() -> {
+                    if (!loop.get()) {
+                        return null;
+                    }
+                    try {
+                        Map<String, FeedUtil.Feed> feeds = ItemsUtil.getFeeds(ani, feedCycle::get);
+                        String fingerprint = ItemsUtil.fingerprint(ani, feeds);
+                        if (fingerprint.equals(SETTLED_CACHE.get(ani.getId(), false))) {
+                            // rss与订阅均未发生变化
+                            log.debug("{} 未更新, 跳过", ani.getTitle());
+                            ScheduleUtil.update(ani, null);
+                            return null;
+                        }
+                        List<Item> items = ItemsUtil.getNewItems(ani, feeds);
+                        ScheduleUtil.update(ani, items);
+                        return new RssResult()
+                                .setAni(ani)
+                                .setFeeds(feeds)
+                                .setItems(items);
+                    } catch (Exception e) {
+                        String message = ExceptionUtil.getMessage(e);
+                        log.error("{} {}", ani.getTitle(), message);
+                        log.error(message, e);
+                    }
+                    return null;
+                });
+            }
+
+            // 按获取完成的顺序依次下载, 下载决策仍然串行
+            for (int i = 0; i < anis.size(); i++) {
                 if (!loop.get()) {
                     return;
                 }
-                Optional<Ani> first = AniUtil.ANI_LIST
-                        .stream()
-                        .filter(it -> it.getId().equals(id))
-                        .findFirst();
-                if (first.isEmpty()) {
+                RssResult rssResult = completionService.take().get();
+                if (Objects.isNull(rssResult)) {
                     continue;
                 }
-                Ani ani = first.get();
+                Ani ani = rssResult.getAni();
+                List<Item> items = rssResult.getItems();
 
                 synchronized (AniUtil.ANI_LIST) {
                     if (!AniUtil.ANI_LIST.contains(ani)) {
@@ -59,21 +138,28 @@ public class RssTask extends Thread {
                         log.debug("{} 未启用", title);
                         continue;
                     }
+                    SETTLED_CACHE.remove(ani.getId());
                     try {
-                        TorrentUtil.downloadAni(ani);
+                        if (TorrentUtil.downloadAni(ani, items)) {
+                            SETTLED_CACHE.put(ani.getId(), ItemsUtil.fingerprint(ani, rssResult.getFeeds()));
+                        }
                     } catch (Exception e) {
                         String message = ExceptionUtil.getMessage(e);
                         log.error("{} {}", title, message);
                         log.error(message, e);
                     }
                 }
-                // 避免短时间频繁请求导致流控
-                ThreadUtil.sleep(500);
             }
+            log.info("本次轮询共请求rss {} 次, 相同rss复用 {} 次", feedCycle.getRequests(), feedCycle.getSaved());
         } catch (Exception e) {
             String message = ExceptionUtil.getMessage(e);
             log.error(message, e);
         } finally {
+            if (Objects.nonNull(executor)) {
+                executor.shutdownNow();
+            }
+            FeedStateUtil.sync();
+            ScheduleUtil.sync();
             download.set(false);
         }
     }
@@ -106,8 +192,20 @@ public class RssTask extends Thread {
                 String message = ExceptionUtil.getMessage(e);
                 log.error(message, e);
             }
-            ThreadUtil.sleep(sleep, TimeUnit.MINUTES);
+            // 有订阅处于放送时段时提前醒来
+            ThreadUtil.sleep(ScheduleUtil.getSleep(TimeUnit.MINUTES.toMillis(sleep)));
         }
         log.info("{} 任务已停止", getName());
     }
+
+    @Data
+    @Accessors(chain = true)
+    private static class RssResult {
+        private Ani ani;
+        /**
+         * url -> rss
+         */
+        private Map<String, FeedUtil.Feed> feeds;
+        private List<Item> items;
+    }
 }
@@ -0,0 +1,60 @@
+package ani.rss.util;
+
+import cn.hutool.core.thread.ThreadUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 后台确认任务是否添加成功
+ * <p>
+ * 添加下载后不再阻塞等待, 按指数退避查询新任务, 多次仍未出现则交由重试处理
+ */
+@Slf4j
+public class AddConfirmUtil {
+
+    /**
+     * 首次查询的延迟
+     */
+    private static final long FIRST_DELAY = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * 查询次数, 依次间隔 5s 10s 20s 40s
+     */
+    private static final int MAX_ATTEMPTS = 4;
+
+    private static final ScheduledExecutorService EXECUTOR = ThreadUtil.createScheduledExecutor(1);
+
+    /**
+     * 确认任务是否添加成功
+     *
+     * @param name  任务名称
+     * @param check 查询任务是否存在
+     * @param retry 未能确认时执行
+     */
+    public static void confirm(String name, Supplier<Boolean> check, Runnable retry) {
+        schedule(name, check, retry, 1, FIRST_DELAY);
+    }
+
+    private static void schedule(String name, Supplier<Boolean> check, Runnable retry, int attempt, long delay) {
+        EXECUTOR.schedule(() -> {
+            try {
+                if (Boolean.TRUE.equals(check.get())) {
+                    log.debug("已确认添加 {} 查询 {} 次", name, attempt);
+                    return;
+                }
+            } catch (Exception e) {
+                log.debug("确认添加失败 {} {}", name, ExceptionUtil.getMessage(e));
+            }
+            if (attempt < MAX_ATTEMPTS) {
+                schedule(name, check, retry, attempt + 1, delay * 2);
+                return;
+            }
+            log.warn("下载器中未找到 {}", name);
+            // 重新添加会调用下载器, 不占用确认线程
+            ThreadUtil.execute(retry);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
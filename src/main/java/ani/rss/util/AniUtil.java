@@ -85,6 +85,8 @@ public class AniUtil {
     public static synchronized void sync() {
         File configFile = getAniFile();
         log.debug("保存订阅 {}", configFile);
+        // 订阅可能改变下载位置
+        TorrentUtil.invalidateAni();
         try {
             String json = GsonStatic.toJson(ANI_LIST);
             File temp = new File(configFile + ".temp");
@@ -159,13 +161,8 @@ public class AniUtil {
 
         // 自动推断剧集偏移
         if (config.getOffset()) {
-            String s = HttpReq.get(url, true)
-                    .timeout(config.getRssTimeout() * 1000)
-                    .thenFunction(res -> {
-                        Assert.isTrue(res.isOk(), "status: {}", res.getStatus());
-                        return res.body();
-                    });
-            List<Item> items = ItemsUtil.getItems(ani, s, new Item());
+            List<Item> entries = FeedUtil.get(url).getItems();
+            List<Item> items = ItemsUtil.getItems(ani, entries, new Item());
             if (items.isEmpty()) {
                 return ani;
             }
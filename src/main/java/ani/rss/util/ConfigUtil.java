@@ -34,7 +34,14 @@ public class ConfigUtil {
                 .setRename(true)
                 .setRss(true)
                 .setRssTimeout(20)
+                .setRssThreads(4)
+                .setRssRateLimit(2.0)
+                .setAdaptivePolling(false)
+                .setAdaptivePollingInterval(180)
+                .setAdaptivePollingWindowInterval(3)
                 .setWatchErrorTorrent(true)
+                .setDownloadRateLimit(2.0)
+                .setDownloadRateBurst(5)
                 .setDelayedDownload(0)
                 .setFileExist(false)
                 .setAwaitStalledUP(true)
@@ -214,6 +221,8 @@ public class ConfigUtil {
     public static synchronized void sync() {
         File configFile = getConfigFile();
         log.debug("保存配置 {}", configFile);
+        // 设置可能改变下载位置
+        TorrentUtil.invalidateAni();
         try {
             String json = GsonStatic.toJson(CONFIG);
             // 校验json没有问题
@@ -0,0 +1,326 @@
+package ani.rss.util;
+
+import ani.rss.entity.Ani;
+import ani.rss.entity.Config;
+import ani.rss.entity.Item;
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.StrUtil;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * rss 增量处理
+ * <p>
+ * 记录每个订阅下每个 rss 已做出的过滤、重命名结果, 之后只处理新出现的条目。
+ * 订阅或相关设置发生变化、或超过 {@link #STATE_TTL} 时自动完整重新处理, 也可通过 {@link #rescan(Ani)} 手动触发。
+ * 重命名模版使用剧集标题时, 已通过过滤的条目每次重新命名, 以便获取到之后才出现的剧集标题
+ */
+@Slf4j
+public class FeedStateUtil {
+
+    /**
+     * 订阅id + rss地址 -> 处理状态
+     */
+    private static final Map<String, FeedState> STATE_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 不影响过滤与重命名结果的订阅字段
+     */
+    private static final List<String> IGNORE_FIELDS = List.of(
+            "enable", "currentEpisodeNumber", "totalEpisodeNumber", "score", "notDownload", "pinyin", "week"
+    );
+
+    /**
+     * 处理结果有效期, 过期后完整重新处理
+     */
+    private static final long STATE_TTL = TimeUnit.DAYS.toMillis(1);
+
+    private static boolean loaded = false;
+    private static boolean changed = false;
+
+    /**
+     * 获取状态文件
+     *
+     * @return
+     */
+    public static File getFeedStateFile() {
+        File configDir = ConfigUtil.getConfigDir();
+        return new File(configDir + File.separator + "feed-state.json");
+    }
+
+    /**
+     * 加载状态
+     */
+    public static synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File file = getFeedStateFile();
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            String s = FileUtil.readUtf8String(file);
+            Map<String, FeedState> map = GsonStatic.gson.fromJson(s, new TypeToken<Map<String, FeedState>>() {
+            }.getType());
+            if (Objects.nonNull(map)) {
+                STATE_MAP.putAll(map);
+            }
+            log.debug("加载rss处理状态 共{}项", STATE_MAP.size());
+        } catch (Exception e) {
+            log.error("加载rss处理状态失败, 将完整处理所有订阅 {}", e.getMessage());
+            log.debug(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 将状态写入文件, 并清除已删除订阅的状态
+     */
+    public static synchronized void sync() {
+        Set<String> ids = AniUtil.ANI_LIST.stream()
+                .map(Ani::getId)
+                .collect(Collectors.toSet());
+        changed |= STATE_MAP.values().removeIf(state -> !ids.contains(state.getAniId()));
+        if (!changed) {
+            return;
+        }
+        changed = false;
+        try {
+            FileUtil.writeUtf8String(GsonStatic.toJson(STATE_MAP), getFeedStateFile());
+            log.debug("保存rss处理状态 共{}项", STATE_MAP.size());
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 完整重新处理订阅
+     *
+     * @param ani
+     */
+    public static synchronized void rescan(Ani ani) {
+        load();
+        changed |= STATE_MAP.values().removeIf(state -> state.getAniId().equals(ani.getId()));
+        log.info("{} 将完整重新处理rss", ani.getTitle());
+        sync();
+    }
+
+    /**
+     * 获取视频列表, 已处理过的条目直接使用上次的结果
+     *
+     * @param ani
+     * @param feed    rss
+     * @param newItem
+     * @param offset  剧集偏移
+     * @return
+     */
+    public static List<Item> getItems(Ani ani, FeedUtil.Feed feed, Item newItem, int offset) {
+        load();
+
+        String key = ani.getId() + " " + feed.getUrl();
+        String rules = rules(ani, newItem, offset);
+        long now = System.currentTimeMillis();
+
+        Map<String, Item> decisions = new HashMap<>();
+        Set<String> rejected = new HashSet<>();
+        FeedState state = STATE_MAP.get(key);
+        boolean valid = Objects.nonNull(state) && rules.equals(state.getRules())
+                && now - ObjectUtil.defaultIfNull(state.getTime(), 0L) < STATE_TTL;
+        if (valid) {
+            decisions = state.getDecisions();
+            rejected = state.getRejected();
+        } else if (Objects.nonNull(state)) {
+            log.debug("{} 订阅或设置已修改或处理结果已过期, 完整处理 {}", ani.getTitle(), feed.getUrl());
+        }
+
+        // 剧集标题可能在首次出现后才能获取到
+        boolean episodeTitle = StrUtil.containsIgnoreCase(ConfigUtil.CONFIG.getRenameTemplate(), "EpisodeTitle");
+
+        List<Item> entries = feed.getItems();
+        Map<String, Item> newDecisions = new HashMap<>();
+        Set<String> newRejected = new HashSet<>();
+        List<Item> items = new ArrayList<>();
+        FilterUtil.Filter filter = null;
+        int count = 0;
+
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Item entry = entries.get(i);
+            String entryKey = getKey(entry);
+
+            Item item = decisions.get(entryKey);
+            if (Objects.nonNull(item) && episodeTitle) {
+                item = reName(ani, item, offset);
+            }
+            if (Objects.nonNull(item)) {
+                newDecisions.put(entryKey, item);
+                // 返回副本, 调用方会修改条目
+                items.add(copy(item));
+                continue;
+            }
+            if (rejected.contains(entryKey)) {
+                newRejected.add(entryKey);
+                continue;
+            }
+
+            count++;
+            if (Objects.isNull(filter)) {
+                filter = FilterUtil.getFilter(ani, newItem.getSubgroup());
+            }
+            item = ItemsUtil.filter(filter, entry, newItem);
+            if (Objects.isNull(item)) {
+                newRejected.add(entryKey);
+                continue;
+            }
+            try {
+                if (!RenameUtil.rename(ani, item, offset)) {
+                    newRejected.add(entryKey);
+                    continue;
+                }
+            } catch (Exception e) {
+                // 不记录结果, 下次重试
+                log.error("解析rss视频集次出现问题");
+                log.error(e.getMessage(), e);
+                continue;
+            }
+            newDecisions.put(entryKey, item);
+            items.add(copy(item));
+        }
+
+        if (count > 0) {
+            log.debug("{} 新条目 {} 个 {}", ani.getTitle(), count, feed.getUrl());
+        }
+
+        if (count > 0 || !valid || !newDecisions.equals(decisions) || newRejected.size() != rejected.size()) {
+            STATE_MAP.put(key, new FeedState()
+                    .setAniId(ani.getId())
+                    .setUrl(feed.getUrl())
+                    .setRules(rules)
+                    .setTime(valid ? state.getTime() : now)
+                    .setDecisions(newDecisions)
+                    .setRejected(newRejected));
+            synchronized (FeedStateUtil.class) {
+                changed = true;
+            }
+        }
+
+        return CollUtil.distinct(items, item -> item.getEpisode().toString(), true);
+    }
+
+    /**
+     * 条目的唯一标识
+     */
+    private static String getKey(Item entry) {
+        return StrUtil.blankToDefault(entry.getInfoHash(), entry.getTorrent());
+    }
+
+    /**
+     * 重新命名已通过过滤的条目
+     *
+     * @return 出错时沿用上次的结果
+     */
+    private static Item reName(Ani ani, Item item, int offset) {
+        Item newItem = copy(item);
+        try {
+            if (RenameUtil.rename(ani, newItem, offset)) {
+                return newItem;
+            }
+        } catch (Exception e) {
+            log.debug("重新命名失败 {} {}", item.getTitle(), e.getMessage());
+        }
+        return item;
+    }
+
+    private static Item copy(Item item) {
+        return new Item()
+                .setTitle(item.getTitle())
+                .setReName(item.getReName())
+                .setTorrent(item.getTorrent())
+                .setInfoHash(item.getInfoHash())
+                .setEpisode(item.getEpisode())
+                .setSize(item.getSize())
+                .setLength(item.getLength())
+                .setLocal(item.getLocal())
+                .setMaster(item.getMaster())
+                .setSubgroup(item.getSubgroup())
+                .setPubDate(item.getPubDate());
+    }
+
+    private static String rules(Ani ani, Item newItem, int offset) {
+        return Md5Util.digestHex(rules(ani) + newItem.getSubgroup() + offset);
+    }
+
+    /**
+     * 影响过滤与重命名结果的订阅与设置摘要
+     *
+     * @param ani
+     * @return
+     */
+    public static String rules(Ani ani) {
+        JsonObject jsonObject = GsonStatic.gson.toJsonTree(ani).getAsJsonObject();
+        for (String field : IGNORE_FIELDS) {
+            jsonObject.remove(field);
+        }
+        Config config = ConfigUtil.CONFIG;
+        // 全局排除, 重命名模板, 以及剧集标题所用的 tmdb/bgm 设置
+        String settings = StrUtil.join("\n",
+                config.getExclude(),
+                config.getRenameTemplate(),
+                config.getRenameDelYear(),
+                config.getRenameDelTmdbId(),
+                config.getSkip5(),
+                config.getTmdb(),
+                config.getTmdbId(),
+                config.getTmdbLanguage(),
+                config.getTitleYear(),
+                config.getBgmJpName()
+        );
+        return Md5Util.digestHex(settings + jsonObject);
+    }
+
+    @Data
+    @Accessors(chain = true)
+    public static class FeedState implements Serializable {
+        /**
+         * 订阅id
+         */
+        private String aniId;
+
+        /**
+         * rss 地址
+         */
+        private String url;
+
+        /**
+         * 订阅与设置摘要, 变化时完整重新处理
+         */
+        private String rules;
+
+        /**
+         * 完整处理时间, 超过 {@link #STATE_TTL} 后完整重新处理
+         */
+        private Long time;
+
+        /**
+         * 条目 -> 通过过滤并完成重命名的结果
+         */
+        private Map<String, Item> decisions;
+
+        /**
+         * 被过滤的条目
+         */
+        private Set<String> rejected;
+    }
+}
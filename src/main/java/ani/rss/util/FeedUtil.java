@@ -0,0 +1,486 @@
+package ani.rss.util;
+
+import ani.rss.entity.Config;
+import ani.rss.entity.Item;
+import ani.rss.enums.StringEnum;
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.lang.Assert;
+import cn.hutool.core.util.NumberUtil;
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.ReUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+import cn.hutool.http.Header;
+import cn.hutool.http.HttpRequest;
+import cn.hutool.http.HttpStatus;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * rss 获取与解析, 支持条件请求
+ */
+@Slf4j
+public class FeedUtil {
+
+    /**
+     * url -> 上次获取的 rss
+     */
+    private static final Cache<String, Feed> FEED_CACHE = CacheUtil.newLRUCache(4096);
+
+    /**
+     * 规范化后的地址 -> 正在进行的请求, 同一 rss 的并发请求共享同一次获取
+     */
+    private static final Map<String, CompletableFuture<Feed>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    /**
+     * 正在进行的rss请求数, 不超过 rssThreads
+     */
+    private static int fetching = 0;
+
+    private static final Object FETCH_LOCK = new Object();
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newFactory();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    /**
+     * 获取 rss, 未更新时服务端返回 304 并使用缓存内容
+     * <p>
+     * 同一 rss 正在获取时等待其结果, 不重复请求
+     *
+     * @param url rss 地址
+     * @return rss
+     */
+    public static Feed get(String url) {
+        String key = normalize(url);
+        CompletableFuture<Feed> future = new CompletableFuture<>();
+        CompletableFuture<Feed> exist = IN_FLIGHT.putIfAbsent(key, future);
+        if (Objects.nonNull(exist)) {
+            log.debug("rss 正在获取, 等待结果 {}", url);
+            return join(exist);
+        }
+        try {
+            Feed feed;
+            acquire();
+            try {
+                feed = fetch(url);
+            } finally {
+                release();
+            }
+            future.complete(feed);
+            return feed;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            IN_FLIGHT.remove(key, future);
+        }
+    }
+
+    /**
+     * 等待空闲的请求名额, 主rss与备用rss共用
+     */
+    private static void acquire() {
+        synchronized (FETCH_LOCK) {
+            while (fetching >= Math.max(1, ObjectUtil.defaultIfNull(ConfigUtil.CONFIG.getRssThreads(), 4))) {
+                try {
+                    FETCH_LOCK.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("rss 获取已中断", e);
+                }
+            }
+            fetching++;
+        }
+    }
+
+    private static void release() {
+        synchronized (FETCH_LOCK) {
+            fetching--;
+            FETCH_LOCK.notifyAll();
+        }
+    }
+
+    private static Feed fetch(String url) {
+        Config config = ConfigUtil.CONFIG;
+        Feed cache = FEED_CACHE.get(url, false);
+
+        RateLimitUtil.acquireHost(url);
+        HttpRequest req = HttpReq.get(url, true)
+                .timeout(config.getRssTimeout() * 1000);
+        if (Objects.nonNull(cache)) {
+            if (StrUtil.isNotBlank(cache.getEtag())) {
+                req.header("If-None-Match", cache.getEtag());
+            }
+            if (StrUtil.isNotBlank(cache.getLastModified())) {
+                req.header("If-Modified-Since", cache.getLastModified());
+            }
+        }
+        return req.thenFunction(res -> {
+            int status = res.getStatus();
+            if (status == HttpStatus.HTTP_NOT_MODIFIED && Objects.nonNull(cache)) {
+                log.debug("rss 未更新 {}", url);
+                return cache;
+            }
+            Assert.isTrue(res.isOk(), "status: {}", status);
+
+            // 先计算摘要, 内容未变化时不再解析
+            byte[] bytes = res.bodyBytes();
+            String hash = DigestUtil.md5Hex(bytes);
+            List<Item> items;
+            if (Objects.nonNull(cache) && hash.equals(cache.getHash())) {
+                log.debug("rss 内容未变化 {}", url);
+                items = cache.getItems();
+            } else {
+                items = parse(IoUtil.toStream(bytes));
+            }
+            Feed feed = new Feed()
+                    .setUrl(url)
+                    .setEtag(res.header(Header.ETAG))
+                    .setLastModified(res.header("Last-Modified"))
+                    .setHash(hash)
+                    .setItems(items);
+            FEED_CACHE.put(url, feed);
+            return feed;
+        });
+    }
+
+    /**
+     * 规范化 rss 地址, 用于判断是否为同一个 rss
+     *
+     * @param url rss 地址
+     * @return
+     */
+    public static String normalize(String url) {
+        url = StrUtil.trim(url);
+        try {
+            URI uri = URI.create(url);
+            String scheme = StrUtil.blankToDefault(uri.getScheme(), "").toLowerCase();
+            String host = StrUtil.blankToDefault(uri.getHost(), "").toLowerCase();
+            int port = uri.getPort();
+            if (("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443)) {
+                port = -1;
+            }
+            return new URI(scheme, uri.getRawUserInfo(), host, port, uri.getRawPath(), uri.getRawQuery(), null)
+                    .toString();
+        } catch (Exception e) {
+            return url;
+        }
+    }
+
+    /**
+     * 解析 rss
+     *
+     * @param xml rss 内容
+     * @return 解析出的条目, 保持 rss 中的顺序
+     */
+    public static List<Item> parse(String xml) {
+        Assert.notBlank(xml, "xml is blank");
+        return parse(IoUtil.toUtf8Stream(xml));
+    }
+
+    /**
+     * 流式解析 rss, 不构建完整的 DOM
+     *
+     * @param inputStream rss 内容
+     * @return 解析出的条目, 保持 rss 中的顺序
+     */
+    public static List<Item> parse(InputStream inputStream) {
+        List<Item> items = new ArrayList<>();
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(inputStream);
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                if (!"item".equals(getName(reader))) {
+                    continue;
+                }
+                Item item = parseItem(reader);
+                if (Objects.nonNull(item)) {
+                    items.add(item);
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        } finally {
+            if (Objects.nonNull(reader)) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * 解析单个 item, 调用时 reader 位于 item 开始处, 返回时位于 item 结束处
+     *
+     * @param reader
+     * @return 没有种子时返回 null
+     * @throws XMLStreamException
+     */
+    private static Item parseItem(XMLStreamReader reader) throws XMLStreamException {
+        String itemTitle = "";
+        String torrent = "";
+        String length = "";
+        String infoHash = "";
+
+        String size = "0MB";
+
+        Date pubDate = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                // item 结束
+                break;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            String name = getName(reader);
+            switch (name) {
+                case "title" -> itemTitle = getText(reader);
+                case "enclosure" -> {
+                    String url = reader.getAttributeValue(null, "url");
+                    length = ObjectUtil.defaultIfNull(reader.getAttributeValue(null, "length"), "1");
+                    skip(reader);
+                    if (Objects.isNull(url)) {
+                        continue;
+                    }
+                    torrent = url;
+                    if (ReUtil.contains(StringEnum.MAGNET_REG, url)) {
+                        infoHash = ReUtil.get(StringEnum.MAGNET_REG, url, 1);
+                    } else {
+                        infoHash = FileUtil.mainName(torrent);
+                    }
+                }
+                case "guid" -> {
+                    String guid = getText(reader);
+                    if (ReUtil.isMatch("^([a-z]|[0-9])+$", guid)) {
+                        infoHash = guid;
+                    }
+                }
+                case "nyaa:infoHash" -> infoHash = getText(reader);
+                case "nyaa:size" -> size = getText(reader);
+                case "pubDate" -> pubDate = parseDate(getText(reader), pubDate);
+                case "torrent" -> {
+                    // mikan 的发布时间位于 torrent 节点内
+                    int depth = 1;
+                    while (depth > 0 && reader.hasNext()) {
+                        event = reader.next();
+                        if (event == XMLStreamConstants.END_ELEMENT) {
+                            depth--;
+                            continue;
+                        }
+                        if (event != XMLStreamConstants.START_ELEMENT) {
+                            continue;
+                        }
+                        if ("pubDate".equals(reader.getLocalName())) {
+                            pubDate = parseDate(getText(reader), pubDate);
+                            continue;
+                        }
+                        depth++;
+                    }
+                }
+                case "link" -> {
+                    String link = getText(reader);
+                    if (link.endsWith(".torrent")) {
+                        torrent = link;
+                    }
+                }
+                default -> skip(reader);
+            }
+        }
+
+        if (StrUtil.isBlank(torrent)) {
+            return null;
+        }
+
+        try {
+            if (StrUtil.isNotBlank(length) && size.equals("0MB")) {
+                Double l = Long.parseLong(length) / 1024.0 / 1024;
+                size = NumberUtil.decimalFormat("0.00", l) + "MB";
+            }
+        } catch (Exception e) {
+            log.warn(e.getMessage());
+        }
+
+        if (StrUtil.isNotBlank(infoHash)) {
+            infoHash = infoHash.toLowerCase();
+        }
+
+        return new Item()
+                .setTitle(itemTitle)
+                .setTorrent(torrent)
+                .setInfoHash(infoHash)
+                .setSize(size)
+                .setPubDate(pubDate);
+    }
+
+    private static Date parseDate(String s, Date defaultDate) {
+        try {
+            return DateUtil.parse(s);
+        } catch (Exception ignored) {
+        }
+        return defaultDate;
+    }
+
+    /**
+     * 节点名, 带有前缀 如 nyaa:infoHash
+     */
+    private static String getName(XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        String localName = reader.getLocalName();
+        if (StrUtil.isEmpty(prefix)) {
+            return localName;
+        }
+        return prefix + ":" + localName;
+    }
+
+    /**
+     * 读取节点内的全部文本, 返回时 reader 位于节点结束处
+     */
+    private static String getText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder();
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT -> depth++;
+                case XMLStreamConstants.END_ELEMENT -> depth--;
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE ->
+                        sb.append(reader.getText());
+                default -> {
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 跳过当前节点, 返回时 reader 位于节点结束处
+     */
+    private static void skip(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static Feed join(CompletableFuture<Feed> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 单次轮询内共享的 rss, 地址相同的 rss 只获取与解析一次
+     */
+    public static class FeedCycle {
+        /**
+         * 规范化后的地址 -> rss
+         */
+        private final Map<String, CompletableFuture<Feed>> feeds = new ConcurrentHashMap<>();
+
+        /**
+         * 实际请求次数
+         */
+        private final AtomicInteger requests = new AtomicInteger();
+
+        /**
+         * 节省的请求次数
+         */
+        private final AtomicInteger saved = new AtomicInteger();
+
+        public Feed get(String url) {
+            CompletableFuture<Feed> future = new CompletableFuture<>();
+            CompletableFuture<Feed> exist = feeds.putIfAbsent(normalize(url), future);
+            if (Objects.nonNull(exist)) {
+                saved.incrementAndGet();
+                log.debug("rss 已在本次轮询中获取 {}", url);
+                return join(exist);
+            }
+            requests.incrementAndGet();
+            try {
+                Feed feed = FeedUtil.get(url);
+                future.complete(feed);
+                return feed;
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        public int getRequests() {
+            return requests.get();
+        }
+
+        public int getSaved() {
+            return saved.get();
+        }
+    }
+
+    @Data
+    @Accessors(chain = true)
+    public static class Feed implements Serializable {
+        /**
+         * rss 地址
+         */
+        private String url;
+
+        /**
+         * ETag
+         */
+        private String etag;
+
+        /**
+         * Last-Modified
+         */
+        private String lastModified;
+
+        /**
+         * 内容摘要
+         */
+        private String hash;
+
+        /**
+         * 解析出的条目
+         */
+        private List<Item> items;
+    }
+}
@@ -0,0 +1,188 @@
+package ani.rss.util;
+
+import ani.rss.entity.Ani;
+import ani.rss.entity.Config;
+import ani.rss.enums.StringEnum;
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.core.lang.PatternPool;
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.ReUtil;
+import cn.hutool.core.util.StrUtil;
+import org.ahocorasick.trie.Trie;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 排除、匹配与全局排除
+ * <p>
+ * 规则按订阅预先编译并缓存, 订阅或设置修改后缓存键随之变化
+ * <p>
+ * 排除规则中不含正则元字符的关键词合并为一个 Aho–Corasick 自动机, 一次扫描完成匹配, 其余规则仍使用正则
+ */
+public class FilterUtil {
+
+    /**
+     * 正则元字符
+     */
+    private static final char[] REGEX_META = "\\^$.|?*+()[]{}".toCharArray();
+
+    /**
+     * 规则 -> 编译后的过滤器
+     */
+    private static final Cache<String, Filter> FILTER_CACHE = CacheUtil.newLRUCache(1024);
+
+    /**
+     * 获取订阅的过滤器
+     *
+     * @param ani
+     * @param subgroup 字幕组, 用于 {{字幕组}}:规则 形式的规则
+     * @return
+     */
+    public static Filter getFilter(Ani ani, String subgroup) {
+        Config config = ConfigUtil.CONFIG;
+        List<String> exclude = ObjectUtil.defaultIfNull(ani.getExclude(), List.of());
+        List<String> match = ObjectUtil.defaultIfNull(ani.getMatch(), List.of());
+        List<String> globalExclude = Boolean.TRUE.equals(ani.getGlobalExclude()) ?
+                ObjectUtil.defaultIfNull(config.getExclude(), List.of()) : List.of();
+
+        String key = StrUtil.join("\n", subgroup, exclude, match, globalExclude);
+        Filter filter = FILTER_CACHE.get(key, false);
+        if (Objects.nonNull(filter)) {
+            return filter;
+        }
+
+        // 排除与全局排除只要命中任意一条即被过滤, 可以合并处理
+        List<String> excludeList = new ArrayList<>();
+        excludeList.addAll(getRegexList(exclude, subgroup));
+        excludeList.addAll(getRegexList(globalExclude, subgroup));
+
+        List<String> keywords = excludeList.stream()
+                .filter(FilterUtil::isLiteral)
+                .distinct()
+                .toList();
+        Trie trie = keywords.isEmpty() ? null : Trie.builder()
+                .addKeywords(keywords)
+                .build();
+
+        filter = new Filter(
+                trie,
+                compile(excludeList.stream()
+                        .filter(s -> !isLiteral(s))
+                        .toList()),
+                compile(getRegexList(match, subgroup))
+        );
+        FILTER_CACHE.put(key, filter);
+        return filter;
+    }
+
+    /**
+     * 是否为不含正则元字符的关键词
+     *
+     * @param regex
+     * @return
+     */
+    public static boolean isLiteral(String regex) {
+        return !StrUtil.containsAny(regex, REGEX_META);
+    }
+
+    /**
+     * 获取属于当前字幕组的规则
+     *
+     * @param list     规则
+     * @param subgroup 字幕组
+     * @return
+     */
+    private static List<String> getRegexList(List<String> list, String subgroup) {
+        List<String> regexList = new ArrayList<>();
+        for (String s : list) {
+            String regex = getRegex(s, subgroup);
+            if (StrUtil.isBlank(regex)) {
+                continue;
+            }
+            regexList.add(regex);
+        }
+        return regexList;
+    }
+
+    private static List<Pattern> compile(List<String> regexList) {
+        return regexList.stream()
+                .map(regex -> PatternPool.get(regex, Pattern.DOTALL))
+                .toList();
+    }
+
+    /**
+     * 解析 {{字幕组}}:规则
+     *
+     * @param s        规则
+     * @param subgroup 字幕组
+     * @return 不属于当前字幕组时返回空字符串
+     */
+    private static String getRegex(String s, String subgroup) {
+        if (StrUtil.isBlank(s)) {
+            return "";
+        }
+        Matcher matcher = PatternPool.get(StringEnum.SUBGROUP_REG_STR, Pattern.DOTALL).matcher(s);
+        if (!matcher.find()) {
+            return s;
+        }
+        String group = matcher.group(1);
+        if (StrUtil.isBlank(group)) {
+            return s;
+        }
+        if (group.equals(subgroup)) {
+            return matcher.group(2);
+        }
+        return "";
+    }
+
+    public static class Filter {
+        /**
+         * 排除关键词
+         */
+        private final Trie trie;
+
+        /**
+         * 排除正则
+         */
+        private final List<Pattern> exclude;
+
+        private final List<Pattern> match;
+
+        Filter(Trie trie, List<Pattern> exclude, List<Pattern> match) {
+            this.trie = trie;
+            this.exclude = exclude;
+            this.match = match;
+        }
+
+        /**
+         * 是否通过过滤
+         *
+         * @param title 标题
+         * @return
+         */
+        public boolean test(String title) {
+            // 排除与全局排除
+            if (Objects.nonNull(trie) && trie.containsMatch(title)) {
+                return false;
+            }
+            for (Pattern pattern : exclude) {
+                if (ReUtil.contains(pattern, title)) {
+                    return false;
+                }
+            }
+
+            // 匹配
+            for (Pattern pattern : match) {
+                if (!ReUtil.contains(pattern, title)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
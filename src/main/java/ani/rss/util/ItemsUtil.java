@@ -4,24 +4,21 @@ import ani.rss.entity.Ani;
 import ani.rss.entity.Config;
 import ani.rss.entity.Item;
 import ani.rss.enums.MessageEnum;
-import ani.rss.enums.StringEnum;
 import cn.hutool.cache.Cache;
 import cn.hutool.cache.CacheUtil;
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.date.DateTime;
 import cn.hutool.core.date.DateUnit;
 import cn.hutool.core.date.DateUtil;
-import cn.hutool.core.io.FileUtil;
-import cn.hutool.core.lang.Assert;
 import cn.hutool.core.text.StrFormatter;
+import cn.hutool.core.thread.ExecutorBuilder;
 import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.*;
-import cn.hutool.http.HttpResponse;
 import lombok.extern.slf4j.Slf4j;
-import org.w3c.dom.*;
 
+import java.io.File;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.function.Function;
 
 
@@ -30,25 +27,144 @@ public class ItemsUtil {
 
     static Cache<String, String> messageCache = CacheUtil.newFIFOCache(40960);
 
+    /**
+     * 获取备用rss, 线程用尽时由调用方线程获取
+     * <p>
+     * 同时进行的rss请求总数由 FeedUtil 按 rssThreads 限制
+     */
+    private static final ExecutorService FEED_EXECUTOR = ExecutorBuilder.create()
+            .setCorePoolSize(0)
+            .setMaxPoolSize(8)
+            .useSynchronousQueue()
+            .setHandler(new ThreadPoolExecutor.CallerRunsPolicy())
+            .setThreadFactory(ThreadUtil.newNamedThreadFactory("back-rss-", true))
+            .build();
+
+    /**
+     * 获取视频列表
+     *
+     * @param ani
+     * @return
+     */
+    public static List<Item> getItems(Ani ani) {
+        return getItems(ani, getFeeds(ani));
+    }
+
+    /**
+     * 获取订阅的主rss与备用rss
+     *
+     * @param ani
+     * @return url -> rss
+     */
+    public static Map<String, FeedUtil.Feed> getFeeds(Ani ani) {
+        return getFeeds(ani, FeedUtil::get);
+    }
+
+    /**
+     * 获取订阅的主rss与备用rss
+     *
+     * @param ani
+     * @param getFeed 获取rss的方式, 如 {@link FeedUtil.FeedCycle#get(String)}
+     * @return url -> rss
+     */
+    public static Map<String, FeedUtil.Feed> getFeeds(Ani ani, Function<String, FeedUtil.Feed> getFeed) {
+        Config config = ConfigUtil.CONFIG;
+        String url = ani.getUrl();
+
+        Set<String> urls = new LinkedHashSet<>();
+        urls.add(url);
+        if (config.getBackRss()) {
+            for (Ani.BackRss rss : ani.getBackRssList()) {
+                urls.add(rss.getUrl());
+            }
+        }
+
+        Map<String, FeedUtil.Feed> feeds = new LinkedHashMap<>();
+        if (urls.size() == 1) {
+            feeds.put(url, getFeed.apply(url));
+            return feeds;
+        }
+
+        // 备用rss并行获取, 请求频率由 RateLimitUtil 按站点控制
+        Map<String, CompletableFuture<FeedUtil.Feed>> futures = new LinkedHashMap<>();
+        for (String s : urls) {
+            if (s.equals(url)) {
+                continue;
+            }
+            futures.put(s, CompletableFuture.supplyAsync(() -> getFeed.apply(s), FEED_EXECUTOR));
+        }
+        try {
+            feeds.put(url, getFeed.apply(url));
+            for (Map.Entry<String, CompletableFuture<FeedUtil.Feed>> entry : futures.entrySet()) {
+                feeds.put(entry.getKey(), entry.getValue().join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        } finally {
+            for (CompletableFuture<FeedUtil.Feed> future : futures.values()) {
+                future.cancel(false);
+            }
+        }
+        return feeds;
+    }
+
+    /**
+     * 订阅与其rss内容的摘要, 用于判断是否需要重新处理
+     * <p>
+     * 开启检测本地文件时包含下载位置的修改时间, 删除已下载的视频后重新处理
+     *
+     * @param ani
+     * @param feeds
+     * @return
+     */
+    public static String fingerprint(Ani ani, Map<String, FeedUtil.Feed> feeds) {
+        StringBuilder sb = new StringBuilder()
+                .append(FeedStateUtil.rules(ani));
+        if (ConfigUtil.CONFIG.getFileExist()) {
+            for (File file : TorrentUtil.getDownloadPath(ani)) {
+                sb.append(file.lastModified());
+            }
+        }
+        for (FeedUtil.Feed feed : feeds.values()) {
+            sb.append(feed.getUrl())
+                    .append(feed.getHash());
+        }
+        return Md5Util.digestHex(sb.toString());
+    }
+
     /**
      * 获取视频列表
      *
      * @param ani
+     * @param feeds 已获取的rss
      * @return
      */
-    public static synchronized List<Item> getItems(Ani ani) {
+    public static List<Item> getItems(Ani ani, Map<String, FeedUtil.Feed> feeds) {
+        return getItems(ani, feeds, false);
+    }
+
+    /**
+     * 获取视频列表, 仅对上次处理后新出现的条目进行过滤与重命名
+     *
+     * @param ani
+     * @param feeds 已获取的rss
+     * @return
+     */
+    public static List<Item> getNewItems(Ani ani, Map<String, FeedUtil.Feed> feeds) {
+        return getItems(ani, feeds, true);
+    }
+
+    private static List<Item> getItems(Ani ani, Map<String, FeedUtil.Feed> feeds, boolean incremental) {
         String url = ani.getUrl();
 
         Config config = ConfigUtil.CONFIG;
 
-        String s = HttpReq.get(url, true)
-                .timeout(config.getRssTimeout() * 1000)
-                .thenFunction(res -> {
-                    Assert.isTrue(res.isOk(), "status: {}", res.getStatus());
-                    return res.body();
-                });
+        FeedUtil.Feed feed = feeds.computeIfAbsent(url, FeedUtil::get);
         String subgroup = StrUtil.blankToDefault(ani.getSubgroup(), "未知字幕组");
-        List<Item> items = new ArrayList<>(ItemsUtil.getItems(ani, s, new Item().setSubgroup(subgroup))
+        List<Item> items = new ArrayList<>(getItems(ani, feed, new Item().setSubgroup(subgroup), ani.getOffset(), incremental)
                 .stream()
                 .peek(item -> item.setMaster(true))
                 .toList());
@@ -60,14 +176,11 @@ public class ItemsUtil {
 
         List<Ani.BackRss> backRss = ani.getBackRssList();
         for (Ani.BackRss rss : backRss) {
-            ThreadUtil.sleep(1000);
-            s = HttpReq.get(rss.getUrl(), true)
-                    .timeout(config.getRssTimeout() * 1000)
-                    .thenFunction(HttpResponse::body);
+            feed = feeds.computeIfAbsent(rss.getUrl(), FeedUtil::get);
             subgroup = StrUtil.blankToDefault(rss.getLabel(), "未知字幕组");
-            Ani clone = ObjUtil.clone(ani);
-            clone.setOffset(rss.getOffset());
-            items.addAll(ItemsUtil.getItems(clone, s, new Item().setSubgroup(subgroup))
+            // 备用rss只有剧集偏移不同, 无需复制订阅
+            int offset = ObjectUtil.defaultIfNull(rss.getOffset(), ani.getOffset());
+            items.addAll(getItems(ani, feed, new Item().setSubgroup(subgroup), offset, incremental)
                     .stream()
                     .peek(item -> item.setMaster(false))
                     .toList());
@@ -83,6 +196,13 @@ public class ItemsUtil {
         return items;
     }
 
+    private static List<Item> getItems(Ani ani, FeedUtil.Feed feed, Item newItem, int offset, boolean incremental) {
+        if (incremental) {
+            return FeedStateUtil.getItems(ani, feed, newItem, offset);
+        }
+        return getItems(ani, feed.getItems(), newItem, offset);
+    }
+
     /**
      * 获取视频列表
      *
@@ -91,163 +211,45 @@ public class ItemsUtil {
      * @return
      */
     public static List<Item> getItems(Ani ani, String xml, Item newItem) {
-        List<String> exclude = ani.getExclude();
-        List<String> match = ani.getMatch();
-
-        List<Item> items = new ArrayList<>();
-
-        Assert.notBlank(xml, "xml is blank");
-
-        Document document = XmlUtil.readXML(xml);
-        Node channel = document.getElementsByTagName("channel").item(0);
-        NodeList childNodes = channel.getChildNodes();
-        Config config = ConfigUtil.CONFIG;
-        List<String> globalExcludeList = config.getExclude();
-        Boolean globalExclude = ani.getGlobalExclude();
-
-        for (int i = childNodes.getLength() - 1; i >= 0; i--) {
-            Node item = childNodes.item(i);
-            String nodeName = item.getNodeName();
-            if (!nodeName.equals("item")) {
-                continue;
-            }
-            String itemTitle = "";
-            String torrent = "";
-            String length = "";
-            String infoHash = "";
-
-            String size = "0MB";
-
-            DateTime pubDate = null;
-
-            NodeList itemChildNodes = item.getChildNodes();
-            for (int j = 0; j < itemChildNodes.getLength(); j++) {
-                Node itemChild = itemChildNodes.item(j);
-                String itemChildNodeName = itemChild.getNodeName();
-                if (itemChildNodeName.equals("title")) {
-                    itemTitle = itemChild.getTextContent();
-                }
-
-                if (itemChildNodeName.equals("enclosure")) {
-                    NamedNodeMap attributes = itemChild.getAttributes();
-                    String url = attributes.getNamedItem("url").getNodeValue();
-                    length = Optional.of(attributes)
-                            .map(it -> it.getNamedItem("length"))
-                            .map(Node::getNodeValue)
-                            .orElse("1");
-
-                    if (ReUtil.contains(StringEnum.MAGNET_REG, url)) {
-                        torrent = url;
-                        infoHash = ReUtil.get(StringEnum.MAGNET_REG, url, 1);
-                    } else {
-                        torrent = url;
-                        infoHash = FileUtil.mainName(torrent);
-                    }
-                }
-
-                if ("guid".equals(itemChildNodeName)) {
-                    if (ReUtil.isMatch("^([a-z]|[0-9])+$", itemChild.getTextContent())) {
-                        infoHash = itemChild.getTextContent();
-                    }
-                }
-
-                if ("nyaa:infoHash".equals(itemChildNodeName)) {
-                    infoHash = itemChild.getTextContent();
-                }
-                if (itemChildNodeName.equals("nyaa:size")) {
-                    size = itemChild.getTextContent();
-                }
-
-                if (itemChildNodeName.equals("pubDate")) {
-                    try {
-                        pubDate = DateUtil.parse(itemChild.getTextContent());
-                    } catch (Exception ignored) {
-                    }
-                }
-
-                if (itemChildNodeName.equals("torrent")) {
-                    try {
-                        pubDate = DateUtil.parse(XmlUtil.getElement((Element) itemChild, "pubDate").getTextContent());
-                    } catch (Exception ignored) {
-                    }
-                }
-
-                if (itemChildNodeName.equals("link")) {
-                    String link = itemChild.getTextContent();
-                    if (!link.endsWith(".torrent")) {
-                        continue;
-                    }
-                    torrent = link;
-                }
-
-            }
-
-            if (StrUtil.isBlank(torrent)) {
-                continue;
-            }
-
-            try {
-                if (StrUtil.isNotBlank(length) && size.equals("0MB")) {
-                    Double l = Long.parseLong(length) / 1024.0 / 1024;
-                    size = NumberUtil.decimalFormat("0.00", l) + "MB";
-                }
-            } catch (Exception e) {
-                log.warn(e.getMessage());
-            }
-
-            if (StrUtil.isNotBlank(infoHash)) {
-                infoHash = infoHash.toLowerCase();
-            }
-
-            Item addNewItem = ObjectUtil.clone(newItem);
-
-            addNewItem
-                    .setEpisode(1.0)
-                    .setTitle(itemTitle)
-                    .setReName(itemTitle)
-                    .setTorrent(torrent)
-                    .setInfoHash(infoHash)
-                    .setSize(size)
-                    .setPubDate(pubDate);
-
-            Function<String, String> map = s -> {
-                String subgroup = ReUtil.get(StringEnum.SUBGROUP_REG_STR, s, 1);
-                if (StrUtil.isBlank(subgroup)) {
-                    return s;
-                }
-                if (subgroup.equals(newItem.getSubgroup())) {
-                    return ReUtil.get(StringEnum.SUBGROUP_REG_STR, s, 2);
-                }
-                return "";
-            };
+        return getItems(ani, FeedUtil.parse(xml), newItem);
+    }
 
-            // 排除
-            if (!exclude.isEmpty()) {
-                if (exclude.stream().map(map).filter(StrUtil::isNotBlank).anyMatch(s -> ReUtil.contains(s, addNewItem.getTitle()))) {
-                    continue;
-                }
-            }
+    /**
+     * 获取视频列表
+     *
+     * @param ani
+     * @param entries rss 解析出的条目
+     * @param newItem
+     * @return
+     */
+    public static List<Item> getItems(Ani ani, List<Item> entries, Item newItem) {
+        return getItems(ani, entries, newItem, ani.getOffset());
+    }
 
-            // 匹配
-            if (!match.isEmpty()) {
-                if (match.stream().map(map).filter(StrUtil::isNotBlank).anyMatch(s -> !ReUtil.contains(s, addNewItem.getTitle()))) {
-                    continue;
-                }
-            }
+    /**
+     * 获取视频列表
+     *
+     * @param ani
+     * @param entries rss 解析出的条目
+     * @param newItem
+     * @param offset  剧集偏移, 备用rss使用自己的偏移
+     * @return
+     */
+    public static List<Item> getItems(Ani ani, List<Item> entries, Item newItem, int offset) {
+        FilterUtil.Filter filter = FilterUtil.getFilter(ani, newItem.getSubgroup());
 
-            // 全局排除
-            if (globalExclude) {
-                if (globalExcludeList.stream().map(map).filter(StrUtil::isNotBlank).anyMatch(s -> ReUtil.contains(s, addNewItem.getTitle()))) {
-                    continue;
-                }
+        List<Item> items = new ArrayList<>();
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Item item = filter(filter, entries.get(i), newItem);
+            if (Objects.nonNull(item)) {
+                items.add(item);
             }
-            items.add(addNewItem);
         }
 
         items = items.stream()
                 .filter(item -> {
                     try {
-                        return RenameUtil.rename(ani, item);
+                        return RenameUtil.rename(ani, item, offset);
                     } catch (Exception e) {
                         log.error("解析rss视频集次出现问题");
                         log.error(e.getMessage(), e);
@@ -257,7 +259,34 @@ public class ItemsUtil {
         return CollUtil.distinct(items, item -> item.getEpisode().toString(), true);
     }
 
-    public static synchronized List<Integer> omitList(Ani ani, List<Item> items) {
+    /**
+     * 对单个条目进行排除、匹配与全局排除
+     *
+     * @param filter  订阅的过滤器
+     * @param entry   rss 解析出的条目
+     * @param newItem 仅使用其中的字幕组
+     * @return 被过滤时返回 null
+     */
+    public static Item filter(FilterUtil.Filter filter, Item entry, Item newItem) {
+        String itemTitle = entry.getTitle();
+
+        if (!filter.test(itemTitle)) {
+            return null;
+        }
+
+        // 直接构建条目, 避免 ObjectUtil.clone 的序列化复制
+        return new Item()
+                .setSubgroup(newItem.getSubgroup())
+                .setEpisode(1.0)
+                .setTitle(itemTitle)
+                .setReName(itemTitle)
+                .setTorrent(entry.getTorrent())
+                .setInfoHash(entry.getInfoHash())
+                .setSize(entry.getSize())
+                .setPubDate(entry.getPubDate());
+    }
+
+    public static List<Integer> omitList(Ani ani, List<Item> items) {
         ArrayList<Integer> list = new ArrayList<>();
         Config config = ConfigUtil.CONFIG;
         Boolean omit = config.getOmit();
@@ -299,7 +328,7 @@ public class ItemsUtil {
      * @param ani
      * @param items
      */
-    public static synchronized void omit(Ani ani, List<Item> items) {
+    public static void omit(Ani ani, List<Item> items) {
         Config config = ConfigUtil.CONFIG;
         List<Integer> list = omitList(ani, items);
 
@@ -319,13 +348,15 @@ public class ItemsUtil {
 
         for (Integer i : list) {
             String s = StrFormatter.format("缺少集数 {} S{}E{}", title, String.format("%02d", season), String.format("%02d", i));
-            if (messageCache.containsKey(s)) {
-                // 一天内已经提醒过了
-                continue;
+            synchronized (messageCache) {
+                if (messageCache.containsKey(s)) {
+                    // 一天内已经提醒过了
+                    continue;
+                }
+                // 缓存一天 不重复发送
+                messageCache.put(s, "1", TimeUnit.DAYS.toMillis(1));
             }
             log.info(s);
-            // 缓存一天 不重复发送
-            messageCache.put(s, "1", TimeUnit.DAYS.toMillis(1));
             sList.add(s);
         }
 
@@ -0,0 +1,121 @@
+package ani.rss.util;
+
+import ani.rss.entity.Config;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.core.util.URLUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 令牌桶限流
+ */
+@Slf4j
+public class RateLimitUtil {
+
+    private static final Map<String, TokenBucket> BUCKETS = new ConcurrentHashMap<>();
+
+    /**
+     * 按站点限流, 用于 RSS 请求
+     *
+     * @param url 请求地址
+     */
+    public static void acquireHost(String url) {
+        Double rssRateLimit = ConfigUtil.CONFIG.getRssRateLimit();
+        if (Objects.isNull(rssRateLimit) || rssRateLimit <= 0) {
+            return;
+        }
+        String host = getHost(url);
+        if (StrUtil.isBlank(host)) {
+            return;
+        }
+        acquire("rss:" + host, rssRateLimit, Math.max(1, (int) Math.ceil(rssRateLimit)));
+    }
+
+    /**
+     * 按下载器限流, 用于下载器请求
+     */
+    public static void acquireDownload() {
+        acquireDownload(ConfigUtil.CONFIG);
+    }
+
+    /**
+     * 按下载器限流, 限流对象为实际请求的下载器
+     *
+     * @param config 请求所用的设置
+     */
+    public static void acquireDownload(Config config) {
+        Double downloadRateLimit = config.getDownloadRateLimit();
+        if (Objects.isNull(downloadRateLimit) || downloadRateLimit <= 0) {
+            return;
+        }
+        int burst = ObjectUtil.defaultIfNull(config.getDownloadRateBurst(), 1);
+        acquire("download:" + config.getDownload() + ":" + config.getHost(), downloadRateLimit, burst);
+    }
+
+    /**
+     * 获取一个令牌, 没有令牌时阻塞等待
+     *
+     * @param key   限流对象
+     * @param rate  每秒请求数
+     * @param burst 突发请求数
+     */
+    public static void acquire(String key, double rate, int burst) {
+        if (rate <= 0) {
+            return;
+        }
+        TokenBucket bucket = BUCKETS.computeIfAbsent(key, k -> new TokenBucket());
+        long wait = bucket.reserve(rate, Math.max(1, burst));
+        if (wait < 1) {
+            return;
+        }
+        log.debug("限流 {} 等待 {} ms", key, wait);
+        ThreadUtil.sleep(wait);
+    }
+
+    public static String getHost(String url) {
+        if (StrUtil.isBlank(url)) {
+            return "";
+        }
+        try {
+            return URLUtil.url(url.trim()).getHost().toLowerCase();
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    static class TokenBucket {
+        private boolean init = false;
+        private double tokens = 0;
+        private long last = 0;
+
+        /**
+         * 预约一个令牌
+         *
+         * @param rate  每秒请求数
+         * @param burst 桶容量
+         * @return 需要等待的毫秒数
+         */
+        synchronized long reserve(double rate, int burst) {
+            long now = System.nanoTime();
+            if (!init) {
+                // 初次使用 桶是满的
+                init = true;
+                tokens = burst;
+            } else {
+                tokens = Math.min(burst, tokens + (now - last) / 1e9 * rate);
+            }
+            last = now;
+            tokens -= 1;
+            if (tokens >= 0) {
+                return 0;
+            }
+            // 令牌不足时欠账, 后续请求依次排队
+            return (long) Math.ceil(-tokens / rate * 1000);
+        }
+    }
+}
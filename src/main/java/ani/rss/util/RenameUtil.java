@@ -5,6 +5,8 @@ import ani.rss.entity.BgmInfo;
 import ani.rss.entity.Config;
 import ani.rss.entity.Item;
 import ani.rss.enums.StringEnum;
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
 import cn.hutool.core.lang.Opt;
 import cn.hutool.core.lang.func.Func1;
 import cn.hutool.core.lang.func.LambdaUtil;
@@ -20,10 +22,36 @@ import java.util.function.Function;
 public class RenameUtil {
     public static final String REG_STR = "(.*|\\[.*])(( - |Vol |[Ee][Pp]?)\\d+(\\.5)?|【\\d+(\\.5)?】|\\[\\d+(\\.5)?( ?[vV]\\d)?( ?END)?( ?完)?]|第\\d+(\\.5)?[话話集]( - END)?|^\\[TOC].* \\d+)";
 
+    /**
+     * 重命名模版 -> 编译后的模版, 修改设置后模版字符串随之变化
+     */
+    private static final Cache<String, List<Segment>> TEMPLATE_CACHE = CacheUtil.newLRUCache(64);
+
+    private static final ThreadLocal<StringBuilder> BUILDER = ThreadLocal.withInitial(StringBuilder::new);
+
+    /**
+     * 重命名模版支持的变量
+     */
+    private static final Set<String> TEMPLATE_FIELDS = Set.of(
+            "seasonFormat", "episodeFormat", "season", "episode", "subgroup", "itemTitle", "resolution",
+            "tmdbid", "title", "episodeTitle", "bgmEpisodeTitle", "bgmJpEpisodeTitle", "jpTitle", "themoviedbName"
+    );
+
     public static Boolean rename(Ani ani, Item item) {
+        return rename(ani, item, ani.getOffset());
+    }
+
+    /**
+     * 重命名
+     *
+     * @param ani
+     * @param item
+     * @param offset 剧集偏移, 备用rss使用自己的偏移
+     * @return 未能识别集数时返回 false
+     */
+    public static Boolean rename(Ani ani, Item item, int offset) {
         Config config = ConfigUtil.CONFIG;
 
-        int offset = ani.getOffset();
         int season = ani.getSeason();
         String title = ani.getTitle();
         Boolean ova = ani.getOva();
@@ -33,19 +61,6 @@ public class RenameUtil {
             return true;
         }
 
-        Boolean renameDelYear = config.getRenameDelYear();
-        Boolean renameDelTmdbId = config.getRenameDelTmdbId();
-
-        if (renameDelTmdbId) {
-            title = ReUtil.replaceAll(title, StringEnum.TMDB_ID_REG, "")
-                    .trim();
-        }
-
-        if (renameDelYear) {
-            title = ReUtil.replaceAll(title, StringEnum.YEAR_REG, "")
-                    .trim();
-        }
-
         Boolean customEpisode = ani.getCustomEpisode();
         String customEpisodeStr = ani.getCustomEpisodeStr();
         Integer customEpisodeGroupIndex = ani.getCustomEpisodeGroupIndex();
@@ -55,27 +70,23 @@ public class RenameUtil {
             renameTemplate = "${title} S${seasonFormat}E${episodeFormat}";
         }
 
-        String subgroup = item.getSubgroup();
-        subgroup = StrUtil.blankToDefault(subgroup, "未知字幕组");
-
         String itemTitle = item.getTitle();
         itemTitle = itemTitle.replace("+NCOPED", "");
         itemTitle = itemTitle.replace("\n", " ");
         itemTitle = itemTitle.replace("\t", " ");
 
-        String e;
-        // 是否使用自定义剧规则
-        if (customEpisode) {
-            e = ReUtil.get(customEpisodeStr, itemTitle, customEpisodeGroupIndex);
+        String episodeStr;
+        // 是否使用自定义剧规则, 与默认规则相同时使用 getEpisodeStr
+        if (customEpisode && !(REG_STR.equals(customEpisodeStr) && Objects.equals(customEpisodeGroupIndex, 2))) {
+            String e = ReUtil.get(customEpisodeStr, itemTitle, customEpisodeGroupIndex);
+            if (StrUtil.isBlank(e)) {
+                return false;
+            }
+            episodeStr = ReUtil.get("\\d+(\\.5)?", e, 0);
         } else {
-            e = ReUtil.get(REG_STR, itemTitle, 2);
-        }
-
-        if (StrUtil.isBlank(e)) {
-            return false;
+            episodeStr = getEpisodeStr(itemTitle);
         }
 
-        String episodeStr = ReUtil.get("\\d+(\\.5)?", e, 0);
         if (StrUtil.isBlank(episodeStr)) {
             return false;
         }
@@ -90,54 +101,297 @@ public class RenameUtil {
         double episode = Double.parseDouble(episodeStr) + offset;
         item.setEpisode(episode);
 
-        String seasonFormat = String.format("%02d", season);
-        String episodeFormat = String.format("%02d", (int) episode);
-
-        episodeStr = String.valueOf((int) episode);
-
         // .5
         boolean is5 = episode != (int) episode;
 
-        if (is5) {
-            episodeFormat = episodeFormat + ".5";
-            episodeStr = episodeStr + ".5";
+        // 只计算模版中用到的变量
+        String name = null;
+        String resolution = null;
+        StringBuilder sb = BUILDER.get();
+        sb.setLength(0);
+        for (Segment segment : getTemplate(renameTemplate)) {
+            String field = segment.field;
+            if (Objects.isNull(field)) {
+                sb.append(segment.text);
+                continue;
+            }
+            switch (field) {
+                case "seasonFormat" -> pad(sb, season);
+                case "episodeFormat" -> {
+                    pad(sb, (int) episode);
+                    if (is5) {
+                        sb.append(".5");
+                    }
+                }
+                case "season" -> sb.append(season);
+                case "episode" -> {
+                    sb.append((int) episode);
+                    if (is5) {
+                        sb.append(".5");
+                    }
+                }
+                case "subgroup" -> sb.append(StrUtil.blankToDefault(item.getSubgroup(), "未知字幕组"));
+                case "itemTitle", "resolution" -> {
+                    if (Objects.isNull(name)) {
+                        name = getName(itemTitle);
+                        resolution = getResolution(name);
+                    }
+                    sb.append(field.equals("itemTitle") ? name : resolution);
+                }
+                case "tmdbid" -> sb.append(Optional.ofNullable(ani.getTmdb())
+                        .map(TmdbUtil.Tmdb::getId)
+                        .orElse(""));
+                case "title" -> sb.append(getTitle(title));
+                case "episodeTitle" -> sb.append(getEpisodeTitle(episode, ani));
+                case "bgmEpisodeTitle" -> sb.append(getBgmEpisodeTitle(episode, ani, false));
+                case "bgmJpEpisodeTitle" -> sb.append(getBgmEpisodeTitle(episode, ani, true));
+                case "jpTitle" -> sb.append(getJpTitle(ani));
+                case "themoviedbName" -> {
+                    String themoviedbName = ani.getThemoviedbName();
+                    sb.append(Objects.isNull(themoviedbName) ? segment.text : themoviedbName);
+                }
+                default -> sb.append(segment.text);
+            }
         }
 
-        itemTitle = getName(itemTitle);
+        String reName = getName(sb.toString());
 
-        String resolution = getResolution(itemTitle);
-        String tmdbId = Optional.ofNullable(ani.getTmdb())
-                .map(TmdbUtil.Tmdb::getId)
-                .orElse("");
+        item
+                .setReName(reName);
+        return true;
+    }
 
-        renameTemplate = renameTemplate.replace("${seasonFormat}", seasonFormat);
-        renameTemplate = renameTemplate.replace("${episodeFormat}", episodeFormat);
-        renameTemplate = renameTemplate.replace("${season}", String.valueOf(season));
-        renameTemplate = renameTemplate.replace("${episode}", episodeStr);
-        renameTemplate = renameTemplate.replace("${subgroup}", subgroup);
-        renameTemplate = renameTemplate.replace("${itemTitle}", itemTitle);
-        renameTemplate = renameTemplate.replace("${resolution}", resolution);
-        renameTemplate = renameTemplate.replace("${tmdbid}", tmdbId);
-        renameTemplate = renameTemplate.replace("${title}", title);
+    /**
+     * 编译重命名模版
+     *
+     * @param template 模版
+     * @return 文本与变量组成的片段
+     */
+    private static List<Segment> getTemplate(String template) {
+        List<Segment> segments = TEMPLATE_CACHE.get(template, false);
+        if (Objects.nonNull(segments)) {
+            return segments;
+        }
+        segments = new ArrayList<>();
+        int i = 0;
+        while (i < template.length()) {
+            int start = template.indexOf("${", i);
+            int end = start < 0 ? -1 : template.indexOf('}', start + 2);
+            if (end < 0) {
+                segments.add(new Segment(template.substring(i), null));
+                break;
+            }
+            if (start > i) {
+                segments.add(new Segment(template.substring(i, start), null));
+            }
+            String field = template.substring(start + 2, end);
+            String text = template.substring(start, end + 1);
+            if (TEMPLATE_FIELDS.contains(field)) {
+                segments.add(new Segment(text, field));
+                i = end + 1;
+                continue;
+            }
+            // 不支持的变量原样保留, 其中可能嵌套了变量
+            segments.add(new Segment("${", null));
+            i = start + 2;
+        }
+        segments = List.copyOf(segments);
+        TEMPLATE_CACHE.put(template, segments);
+        return segments;
+    }
 
-        renameTemplate = replaceEpisodeTitle(renameTemplate, episode, ani);
+    /**
+     * 订阅标题, 按设置去除年份与 tmdbid
+     */
+    private static String getTitle(String title) {
+        Config config = ConfigUtil.CONFIG;
+        if (config.getRenameDelTmdbId()) {
+            title = ReUtil.replaceAll(title, StringEnum.TMDB_ID_REG, "")
+                    .trim();
+        }
+        if (config.getRenameDelYear()) {
+            title = ReUtil.replaceAll(title, StringEnum.YEAR_REG, "")
+                    .trim();
+        }
+        return title;
+    }
 
-        if (renameTemplate.contains("${jpTitle}")) {
-            String jpTitle = getJpTitle(ani);
-            renameTemplate = renameTemplate.replace("${jpTitle}", jpTitle);
+    private static void pad(StringBuilder sb, int i) {
+        if (i >= 0 && i < 10) {
+            sb.append('0');
         }
+        sb.append(i);
+    }
 
-        List<Func1<Ani, Object>> list = List.of(
-                Ani::getThemoviedbName
-        );
+    /**
+     * 模版片段, field 为空时为文本
+     */
+    private static class Segment {
+        private final String text;
+        private final String field;
+
+        Segment(String text, String field) {
+            this.text = text;
+            this.field = field;
+        }
+    }
 
-        renameTemplate = replaceField(renameTemplate, ani, list);
+    /**
+     * 从标题中获取集数, 与 {@link #REG_STR} 结果一致
+     * <p>
+     * 从后向前查找最后一处集数标记, 每个位置只向后扫描一次, 不存在正则回溯
+     *
+     * @param title 标题
+     * @return 集数, 如 03 或 03.5, 未找到时返回 null
+     */
+    public static String getEpisodeStr(String title) {
+        int length = title.length();
+        for (int p = length - 1; p >= 0; p--) {
+            int start = episodeStart(title, p);
+            if (start < 0) {
+                continue;
+            }
+            int end = start;
+            while (end < length && isDigit(title.charAt(end))) {
+                end++;
+            }
+            if (title.startsWith(".5", end)) {
+                end += 2;
+            }
+            return title.substring(start, end);
+        }
+        if (!title.startsWith("[TOC]")) {
+            return null;
+        }
+        // [TOC] 开头时取最后一个 ' 数字' 之前 (含) 的第一个数字
+        int end = -1;
+        for (int q = length - 2; q >= 5; q--) {
+            if (title.charAt(q) == ' ' && isDigit(title.charAt(q + 1))) {
+                end = q + 1;
+                break;
+            }
+        }
+        if (end < 0) {
+            return null;
+        }
+        while (end < length && isDigit(title.charAt(end))) {
+            end++;
+        }
+        int start = 0;
+        while (!isDigit(title.charAt(start))) {
+            start++;
+        }
+        int i = start;
+        while (i < end && isDigit(title.charAt(i))) {
+            i++;
+        }
+        if (i + 2 <= end && title.startsWith(".5", i)) {
+            i += 2;
+        }
+        return title.substring(start, i);
+    }
 
-        String reName = getName(renameTemplate);
+    /**
+     * 判断 p 处是否为集数标记
+     *
+     * @return 集数开始的位置, 不是集数标记时返回 -1
+     */
+    private static int episodeStart(String s, int p) {
+        int length = s.length();
+        char c = s.charAt(p);
+        int i;
+        switch (c) {
+            case ' ' -> {
+                // " - 03"
+                if (!s.startsWith(" - ", p)) {
+                    return -1;
+                }
+                i = p + 3;
+                return i < length && isDigit(s.charAt(i)) ? i : -1;
+            }
+            case 'V' -> {
+                // "Vol 03"
+                if (!s.startsWith("Vol ", p)) {
+                    return -1;
+                }
+                i = p + 4;
+                return i < length && isDigit(s.charAt(i)) ? i : -1;
+            }
+            case 'E', 'e' -> {
+                // "EP03" "E03"
+                i = p + 1;
+                if (i < length && (s.charAt(i) == 'P' || s.charAt(i) == 'p')) {
+                    i++;
+                }
+                return i < length && isDigit(s.charAt(i)) ? i : -1;
+            }
+            case '【' -> {
+                // "【03】"
+                i = p + 1;
+                int end = digits(s, i);
+                if (end == i) {
+                    return -1;
+                }
+                return end < length && s.charAt(end) == '】' ? i : -1;
+            }
+            case '[' -> {
+                // "[03]" "[03v2]" "[03 END]" "[03完]"
+                i = p + 1;
+                int end = digits(s, i);
+                if (end == i) {
+                    return -1;
+                }
+                int v = end < length && s.charAt(end) == ' ' ? end + 1 : end;
+                if (v + 1 < length && (s.charAt(v) == 'v' || s.charAt(v) == 'V') && isDigit(s.charAt(v + 1))) {
+                    end = v + 2;
+                }
+                if (s.startsWith("END", end)) {
+                    end += 3;
+                } else if (s.startsWith(" END", end)) {
+                    end += 4;
+                }
+                if (s.startsWith("完", end)) {
+                    end += 1;
+                } else if (s.startsWith(" 完", end)) {
+                    end += 2;
+                }
+                return end < length && s.charAt(end) == ']' ? i : -1;
+            }
+            case '第' -> {
+                // "第03话"
+                i = p + 1;
+                int end = digits(s, i);
+                if (end == i || end >= length) {
+                    return -1;
+                }
+                char t = s.charAt(end);
+                return t == '话' || t == '話' || t == '集' ? i : -1;
+            }
+            default -> {
+                return -1;
+            }
+        }
+    }
 
-        item
-                .setReName(reName);
-        return true;
+    /**
+     * 跳过 \d+(\.5)?
+     *
+     * @return 结束位置, 没有数字时等于 i
+     */
+    private static int digits(String s, int i) {
+        int start = i;
+        int length = s.length();
+        while (i < length && isDigit(s.charAt(i))) {
+            i++;
+        }
+        if (i > start && s.startsWith(".5", i)) {
+            i += 2;
+        }
+        return i;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
     public static <T> String replaceField(String template, T object, List<Func1<T, Object>> list) {
@@ -165,37 +419,51 @@ public class RenameUtil {
      * @return 替换结果
      */
     public static String replaceEpisodeTitle(String template, Double episode, Ani ani) {
-        boolean is5 = episode != (int) episode.doubleValue();
-
-        Map<Integer, String> episodeTitleMap = new HashMap<>();
-        Map<Integer, Function<Boolean, String>> bgmEpisodeTitleMap = new HashMap<>();
-
         if (template.contains("${episodeTitle}")) {
-            episodeTitleMap = TmdbUtil.getEpisodeTitleMap(ani);
+            template = template.replace("${episodeTitle}", getEpisodeTitle(episode, ani));
         }
-
-        if (template.contains("${bgmEpisodeTitle}") || template.contains("${bgmJpEpisodeTitle}")) {
-            bgmEpisodeTitleMap = BgmUtil.getEpisodeTitleMap(ani);
+        if (template.contains("${bgmEpisodeTitle}")) {
+            template = template.replace("${bgmEpisodeTitle}", getBgmEpisodeTitle(episode, ani, false));
         }
+        if (template.contains("${bgmJpEpisodeTitle}")) {
+            template = template.replace("${bgmJpEpisodeTitle}", getBgmEpisodeTitle(episode, ani, true));
+        }
+        return template;
+    }
 
+    /**
+     * 获取 tmdb 集标题
+     *
+     * @param episode 集数
+     * @param ani     订阅
+     * @return 集标题, 获取不到时为 第x集
+     */
+    public static String getEpisodeTitle(Double episode, Ani ani) {
         String defaultEpisodeTitle = "第" + episode + "集";
-
-        String episodeTitle = is5 ? defaultEpisodeTitle : episodeTitleMap
+        if (episode != (int) episode.doubleValue()) {
+            return defaultEpisodeTitle;
+        }
+        return TmdbUtil.getEpisodeTitleMap(ani)
                 .getOrDefault(episode.intValue(), defaultEpisodeTitle);
+    }
 
-        String bgmEpisodeTitle = is5 ? defaultEpisodeTitle : bgmEpisodeTitleMap
-                .getOrDefault(episode.intValue(), jp -> defaultEpisodeTitle)
-                .apply(false);
-
-        String bgmJpEpisodeTitle = is5 ? defaultEpisodeTitle : bgmEpisodeTitleMap
-                .getOrDefault(episode.intValue(), jp -> defaultEpisodeTitle)
-                .apply(true);
-
-        template = template.replace("${episodeTitle}", episodeTitle);
-        template = template.replace("${bgmEpisodeTitle}", bgmEpisodeTitle);
-        template = template.replace("${bgmJpEpisodeTitle}", bgmJpEpisodeTitle);
-
-        return template;
+    /**
+     * 获取 bgm 集标题
+     *
+     * @param episode 集数
+     * @param ani     订阅
+     * @param jp      日文标题
+     * @return 集标题, 获取不到时为 第x集
+     */
+    public static String getBgmEpisodeTitle(Double episode, Ani ani, Boolean jp) {
+        String defaultEpisodeTitle = "第" + episode + "集";
+        if (episode != (int) episode.doubleValue()) {
+            return defaultEpisodeTitle;
+        }
+        Map<Integer, Function<Boolean, String>> bgmEpisodeTitleMap = BgmUtil.getEpisodeTitleMap(ani);
+        return bgmEpisodeTitleMap
+                .getOrDefault(episode.intValue(), it -> defaultEpisodeTitle)
+                .apply(jp);
     }
 
 
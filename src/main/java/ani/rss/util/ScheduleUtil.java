@@ -0,0 +1,295 @@
+package ani.rss.util;
+
+import ani.rss.entity.Ani;
+import ani.rss.entity.Config;
+import ani.rss.entity.Item;
+import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.text.StrFormatter;
+import cn.hutool.core.util.ObjectUtil;
+import com.google.gson.reflect.TypeToken;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按放送时间调整订阅的刷新频率
+ * <p>
+ * 从以往的发布时间推算每周的放送时段, 没有足够的发布记录时使用番剧的放送星期。
+ * 放送时段内按 adaptivePollingWindowInterval 频繁刷新, 其余时间按 adaptivePollingInterval 降低刷新频率。
+ * 刷新记录保存在 schedule.json, 重启后无需重新推算
+ */
+@Slf4j
+public class ScheduleUtil {
+
+    private static final long WEEK = TimeUnit.DAYS.toMillis(7);
+
+    /**
+     * 推算放送时间所需的最少发布记录
+     */
+    private static final int MIN_HISTORY = 3;
+
+    /**
+     * 参与推算的发布记录数
+     */
+    private static final int MAX_HISTORY = 8;
+
+    /**
+     * 每周发布时间的最大偏差, 超过则认为没有固定的放送时间
+     */
+    private static final long MAX_DEVIATION = TimeUnit.HOURS.toMillis(6);
+
+    /**
+     * 推算出的放送时间之前开始频繁刷新
+     */
+    private static final long WINDOW_BEFORE = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * 推算出的放送时间之后持续频繁刷新, 字幕组发布时间并不固定
+     */
+    private static final long WINDOW_AFTER = TimeUnit.HOURS.toMillis(12);
+
+    /**
+     * 轮询时间的误差, 避免因为几秒之差推迟到下一次轮询
+     */
+    private static final long TOLERANCE = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * 订阅id -> 刷新记录
+     */
+    private static final Map<String, Schedule> SCHEDULE_MAP = new ConcurrentHashMap<>();
+
+    private static boolean loaded = false;
+
+    /**
+     * 获取刷新记录文件
+     *
+     * @return
+     */
+    public static File getScheduleFile() {
+        File configDir = ConfigUtil.getConfigDir();
+        return new File(configDir + File.separator + "schedule.json");
+    }
+
+    /**
+     * 加载刷新记录
+     */
+    public static synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File file = getScheduleFile();
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            String s = FileUtil.readUtf8String(file);
+            Map<String, Schedule> map = GsonStatic.gson.fromJson(s, new TypeToken<Map<String, Schedule>>() {
+            }.getType());
+            if (Objects.nonNull(map)) {
+                SCHEDULE_MAP.putAll(map);
+            }
+            log.debug("加载刷新记录 共{}项", SCHEDULE_MAP.size());
+        } catch (Exception e) {
+            log.error("加载刷新记录失败 {}", e.getMessage());
+            log.debug(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 本次轮询是否需要刷新此订阅
+     *
+     * @param ani
+     * @return
+     */
+    public static boolean isDue(Ani ani) {
+        Config config = ConfigUtil.CONFIG;
+        if (!Boolean.TRUE.equals(config.getAdaptivePolling())) {
+            return true;
+        }
+        load();
+        Schedule schedule = SCHEDULE_MAP.get(ani.getId());
+        if (Objects.isNull(schedule) || Objects.isNull(schedule.getLastPoll())) {
+            // 首次刷新
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        long elapsed = now - schedule.getLastPoll() + TOLERANCE;
+        long[] window = getWindow(ani, schedule);
+        if (Objects.isNull(window)) {
+            // 无法推算放送时间, 按正常间隔刷新
+            return elapsed >= TimeUnit.MINUTES.toMillis(config.getSleep());
+        }
+        if (inWindow(now, window)) {
+            return elapsed >= getWindowInterval(config);
+        }
+        if (elapsed >= TimeUnit.MINUTES.toMillis(ObjectUtil.defaultIfNull(config.getAdaptivePollingInterval(), 180))) {
+            return true;
+        }
+        log.debug("{} 不在放送时段内, 跳过本次刷新", ani.getTitle());
+        return false;
+    }
+
+    /**
+     * 下次轮询前的等待时间, 有订阅处于放送时段时缩短为放送时段内的间隔
+     *
+     * @param sleep 正常的轮询间隔 毫秒
+     * @return 毫秒
+     */
+    public static long getSleep(long sleep) {
+        Config config = ConfigUtil.CONFIG;
+        if (!Boolean.TRUE.equals(config.getAdaptivePolling())) {
+            return sleep;
+        }
+        long windowInterval = getWindowInterval(config);
+        if (windowInterval >= sleep) {
+            return sleep;
+        }
+        load();
+        long now = System.currentTimeMillis();
+        for (Ani ani : AniUtil.ANI_LIST) {
+            if (!ani.getEnable()) {
+                continue;
+            }
+            Schedule schedule = SCHEDULE_MAP.get(ani.getId());
+            if (Objects.isNull(schedule)) {
+                continue;
+            }
+            long[] window = getWindow(ani, schedule);
+            if (Objects.nonNull(window) && inWindow(now, window)) {
+                return windowInterval;
+            }
+        }
+        return sleep;
+    }
+
+    private static long getWindowInterval(Config config) {
+        return TimeUnit.MINUTES.toMillis(Math.max(1, ObjectUtil.defaultIfNull(config.getAdaptivePollingWindowInterval(), 3)));
+    }
+
+    /**
+     * 记录刷新结果
+     *
+     * @param ani
+     * @param items 视频列表, 为 null 时只记录刷新时间
+     */
+    public static void update(Ani ani, List<Item> items) {
+        load();
+        Schedule schedule = SCHEDULE_MAP.computeIfAbsent(ani.getId(), k -> new Schedule().setPubDates(List.of()));
+        schedule.setLastPoll(System.currentTimeMillis());
+        if (Objects.isNull(items)) {
+            return;
+        }
+        List<Long> pubDates = items.stream()
+                .filter(item -> !Boolean.FALSE.equals(item.getMaster()))
+                .map(Item::getPubDate)
+                .filter(Objects::nonNull)
+                .map(Date::getTime)
+                .distinct()
+                .sorted(Comparator.reverseOrder())
+                .limit(MAX_HISTORY)
+                .toList();
+        schedule.setPubDates(pubDates);
+    }
+
+    /**
+     * 删除已不存在的订阅, 并将刷新记录写入文件
+     */
+    public static synchronized void sync() {
+        load();
+        Set<String> ids = new HashSet<>();
+        for (Ani ani : AniUtil.ANI_LIST) {
+            ids.add(ani.getId());
+        }
+        SCHEDULE_MAP.keySet().removeIf(id -> !ids.contains(id));
+        try {
+            FileUtil.writeUtf8String(GsonStatic.toJson(SCHEDULE_MAP), getScheduleFile());
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 获取每周的放送时段
+     *
+     * @param ani
+     * @param schedule
+     * @return [开始, 结束) 相对于每周开始的毫秒数, 无法推算时返回 null
+     */
+    private static long[] getWindow(Ani ani, Schedule schedule) {
+        List<Long> pubDates = schedule.getPubDates();
+        if (pubDates.size() >= MIN_HISTORY) {
+            // 以最近一次发布为基准, 计算其余发布时间在一周内的偏差
+            long base = weekOffset(pubDates.get(0));
+            long sum = 0;
+            for (Long pubDate : pubDates) {
+                long deviation = Math.floorMod(weekOffset(pubDate) - base + WEEK / 2, WEEK) - WEEK / 2;
+                if (Math.abs(deviation) > MAX_DEVIATION) {
+                    // 发布时间不固定
+                    return null;
+                }
+                sum += deviation;
+            }
+            long expected = Math.floorMod(base + sum / pubDates.size(), WEEK);
+            return new long[]{expected - WINDOW_BEFORE, expected + WINDOW_AFTER};
+        }
+
+        // 使用放送星期, 当天与次日上午
+        Integer year = ani.getYear();
+        Integer month = ani.getMonth();
+        Integer date = ani.getDate();
+        if (Objects.isNull(year) || Objects.isNull(month) || Objects.isNull(date) || year <= 1970) {
+            return null;
+        }
+        try {
+            Date airDate = DateUtil.parseDate(StrFormatter.format("{}-{}-{}", year, month, date));
+            long start = weekOffset(airDate.getTime());
+            return new long[]{start, start + TimeUnit.HOURS.toMillis(36)};
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static boolean inWindow(long time, long[] window) {
+        long offset = weekOffset(time);
+        long start = window[0];
+        long end = window[1];
+        // 放送时段可能跨周
+        for (long shift : new long[]{-WEEK, 0, WEEK}) {
+            if (offset + shift >= start && offset + shift < end) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 本地时间在一周内的毫秒数
+     */
+    private static long weekOffset(long time) {
+        long local = time + TimeZone.getDefault().getOffset(time);
+        return Math.floorMod(local, WEEK);
+    }
+
+    @Data
+    @Accessors(chain = true)
+    public static class Schedule implements Serializable {
+        /**
+         * 上次刷新时间
+         */
+        private Long lastPoll;
+
+        /**
+         * 最近的发布时间
+         */
+        private List<Long> pubDates;
+    }
+}
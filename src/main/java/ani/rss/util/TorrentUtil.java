@@ -13,16 +13,17 @@ import cn.hutool.core.date.DateField;
 import cn.hutool.core.date.DateUtil;
 import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.text.StrFormatter;
-import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.*;
 import cn.hutool.extra.pinyin.PinyinUtil;
 import cn.hutool.json.JSONUtil;
+import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.bittorrent.TorrentFile;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -31,12 +32,34 @@ public class TorrentUtil {
     @Setter
     private static BaseDownload baseDownload;
 
+    /**
+     * 任务列表快照的有效期, 同一轮处理中的多次查询共用一次请求
+     */
+    private static final long SNAPSHOT_TTL = TimeUnit.SECONDS.toMillis(10);
+
+    private static final Object SNAPSHOT_LOCK = new Object();
+
+    private static volatile Snapshot snapshot;
+
+    private static long snapshotVersion = 0;
+
+    /**
+     * 下载动漫
+     *
+     * @param ani
+     */
+    public static void downloadAni(Ani ani) {
+        downloadAni(ani, ItemsUtil.getItems(ani));
+    }
+
     /**
      * 下载动漫
      *
      * @param ani
+     * @param items 已获取的视频列表
+     * @return 是否所有视频都已处理完毕, 存在延迟下载、数量限制等待等情况时为 false
      */
-    public static synchronized void downloadAni(Ani ani) {
+    public static synchronized Boolean downloadAni(Ani ani, List<Item> items) {
         Config config = ConfigUtil.CONFIG;
         Boolean delete = config.getDelete();
         Boolean autoDisabled = config.getAutoDisabled();
@@ -49,31 +72,15 @@ public class TorrentUtil {
         Boolean downloadNew = ani.getDownloadNew();
         List<Double> notDownload = ani.getNotDownload();
 
-        List<TorrentsInfo> torrentsInfos = getTorrentsInfos();
+        Snapshot snapshot = getSnapshot();
 
         int currentDownloadCount = 0;
-        List<Item> items = ItemsUtil.getItems(ani);
+        boolean settled = true;
 
         ItemsUtil.omit(ani, items);
         log.debug("{} 共 {} 个", title, items.size());
 
-        long count = torrentsInfos
-                .stream()
-                .filter(it -> {
-                    TorrentsInfo.State state = it.getState();
-                    if (Objects.isNull(state)) {
-                        return true;
-                    }
-                    // 未下载完成
-                    return !List.of(
-                            TorrentsInfo.State.queuedUP.name(),
-                            TorrentsInfo.State.uploading.name(),
-                            TorrentsInfo.State.stalledUP.name(),
-                            TorrentsInfo.State.pausedUP.name(),
-                            TorrentsInfo.State.stoppedUP.name()
-                    ).contains(state.name());
-                })
-                .count();
+        long count = snapshot.getDownloadingCount();
 
         List<File> downloadPathList = getDownloadPath(ani);
         String savePath = FilePathUtil.getAbsolutePath(
@@ -142,25 +149,16 @@ public class TorrentUtil {
                 Date now = DateUtil.offset(new Date(), DateField.MINUTE, -delayedDownload);
                 if (now.getTime() < pubDate.getTime()) {
                     log.info("延迟下载 {}", reName);
+                    settled = false;
                     continue;
                 }
             }
 
             // 仅在主RSS更新后删除备用RSS
             if (delete && master && deleteBackRSSOnly) {
-                TorrentsInfo backRSS = torrentsInfos
+                TorrentsInfo backRSS = snapshot.getByEpisode(savePath, ReUtil.get(StringEnum.SEASON_REG, reName, 0))
                         .stream()
                         .filter(torrentsInfo -> {
-                            if (!torrentsInfo.getDownloadDir().equals(savePath)) {
-                                return false;
-                            }
-                            if (!ReUtil.contains(StringEnum.SEASON_REG, torrentsInfo.getName())) {
-                                return false;
-                            }
-                            String s = ReUtil.get(StringEnum.SEASON_REG, torrentsInfo.getName(), 0);
-                            if (!s.equals(ReUtil.get(StringEnum.SEASON_REG, reName, 0))) {
-                                return false;
-                            }
                             List<String> tags = torrentsInfo.getTags();
                             return tags.contains(TorrentsTags.BACK_RSS.getValue());
                         })
@@ -171,23 +169,22 @@ public class TorrentUtil {
                     List<String> tags = backRSS.getTags();
                     if (!tags.contains(TorrentsTags.RENAME.getValue())) {
                         // 未完成重命名
+                        settled = false;
                         continue;
                     }
                     if (!delete(backRSS)) {
                         log.debug("备用RSS可能还未做种完成 {}", backRSS.getName());
                         // 删除失败或者不允许删除
+                        settled = false;
                         continue;
                     }
-                    torrentsInfos.remove(backRSS);
+                    // 删除后快照已失效
+                    snapshot = getSnapshot();
                 }
             }
 
-            // 已经下载过
-            if (torrentsInfos
-                    .stream()
-                    .anyMatch(torrentsInfo ->
-                            // hash 相同
-                            torrentsInfo.getHash().equals(hash))) {
+            // 已经下载过, hash 相同
+            if (Objects.nonNull(snapshot.getByHash(hash))) {
                 log.info("已有下载任务 hash:{} name:{}", hash, reName);
                 if (master && !is5) {
                     currentDownloadCount++;
@@ -208,6 +205,7 @@ public class TorrentUtil {
             if (downloadCount > 0) {
                 if (count >= downloadCount) {
                     log.debug("达到同时下载数量限制 {}", downloadCount);
+                    settled = false;
                     continue;
                 }
             }
@@ -216,13 +214,14 @@ public class TorrentUtil {
 
             if (!saveTorrent.exists()) {
                 // 种子下载失败
+                settled = false;
                 continue;
             }
 
             deleteBackRss(ani, item);
 
             if (!AniUtil.ANI_LIST.contains(ani)) {
-                return;
+                return false;
             }
             download(ani, item, savePath, saveTorrent);
             if (master && !is5) {
@@ -239,11 +238,11 @@ public class TorrentUtil {
         }
 
         if (!autoDisabled) {
-            return;
+            return settled;
         }
         Integer totalEpisodeNumber = ani.getTotalEpisodeNumber();
         if (totalEpisodeNumber < 1) {
-            return;
+            return settled;
         }
         if (currentDownloadCount >= totalEpisodeNumber) {
             ani.setEnable(false);
@@ -251,6 +250,7 @@ public class TorrentUtil {
             MessageUtil.send(config, ani, StrFormatter.format("{} 订阅已完结", title), MessageEnum.COMPLETED);
             AniUtil.sync();
         }
+        return settled;
     }
 
     /**
@@ -286,28 +286,16 @@ public class TorrentUtil {
 
         List<File> downloadPathList = getDownloadPath(ani);
 
-        List<TorrentsInfo> torrentsInfos = getTorrentsInfos();
+        Snapshot snapshot = getSnapshot();
 
+        List<TorrentsInfo> backRSSList = new ArrayList<>();
         for (File file : downloadPathList) {
-            String finalReName = reName;
-            TorrentsInfo backRSS = torrentsInfos
+            snapshot.getByEpisode(FilePathUtil.getAbsolutePath(file), reName)
                     .stream()
-                    .filter(torrentsInfo -> {
-                        if (!torrentsInfo.getDownloadDir().equals(FilePathUtil.getAbsolutePath(file))) {
-                            return false;
-                        }
-                        if (!ReUtil.contains(StringEnum.SEASON_REG, torrentsInfo.getName())) {
-                            return false;
-                        }
-                        String s = ReUtil.get(StringEnum.SEASON_REG, torrentsInfo.getName(), 0);
-                        return s.equals(finalReName);
-                    })
                     .findFirst()
-                    .orElse(null);
-            if (Objects.nonNull(backRSS)) {
-                TorrentUtil.delete(backRSS, true, true);
-            }
+                    .ifPresent(backRSSList::add);
         }
+        delete(backRSSList, true);
 
         List<File> files = downloadPathList.stream()
                 .filter(File::exists)
@@ -478,14 +466,10 @@ public class TorrentUtil {
         Double episode = item.getEpisode();
 
         if (downloadList) {
-            List<TorrentsInfo> torrentsInfos = getTorrentsInfos();
-            for (TorrentsInfo torrentsInfo : torrentsInfos) {
-                String name = torrentsInfo.getName();
-                if (name.equalsIgnoreCase(reName)) {
-                    log.info("已存在下载任务 {}", reName);
-                    saveTorrent(ani, item);
-                    return true;
-                }
+            if (Objects.nonNull(getSnapshot().getByName(reName))) {
+                log.info("已存在下载任务 {}", reName);
+                saveTorrent(ani, item);
+                return true;
             }
         }
 
@@ -666,7 +650,6 @@ public class TorrentUtil {
      * @return
      */
     public static synchronized Boolean login() {
-        ThreadUtil.sleep(1000);
         Config config = ConfigUtil.CONFIG;
         String downloadPath = config.getDownloadPath();
         if (StrUtil.isBlank(downloadPath)) {
@@ -692,7 +675,6 @@ public class TorrentUtil {
         ani = ObjectUtil.clone(ani);
 
         String name = item.getReName();
-        Boolean ova = ani.getOva();
         Boolean master = item.getMaster();
         String subgroup = item.getSubgroup();
         subgroup = StrUtil.blankToDefault(subgroup, "未知字幕组");
@@ -704,7 +686,6 @@ public class TorrentUtil {
             log.error("种子下载出现问题 {} {}", name, FilePathUtil.getAbsolutePath(torrentFile));
             return;
         }
-        ThreadUtil.sleep(1000);
         savePath = FilePathUtil.getAbsolutePath(savePath);
 
         String text = StrFormatter.format("{} 已更新", name);
@@ -713,16 +694,48 @@ public class TorrentUtil {
         }
         MessageUtil.send(ConfigUtil.CONFIG, ani, text, MessageEnum.DOWNLOAD_START);
 
+        add(ani, item, savePath, torrentFile, 1);
+    }
+
+    /**
+     * 添加到下载器
+     * <p>
+     * 开启检测死种时由 {@link AddConfirmUtil} 在后台确认, 未找到任务时重新添加
+     *
+     * @param ani
+     * @param item
+     * @param savePath
+     * @param torrentFile
+     * @param retry       当前重试次数
+     */
+    private static synchronized void add(Ani ani, Item item, String savePath, File torrentFile, int retry) {
+        String name = item.getReName();
+        Boolean ova = ani.getOva();
         Config config = ConfigUtil.CONFIG;
         Integer downloadRetry = config.getDownloadRetry();
-        for (int i = 1; i <= downloadRetry; i++) {
+        for (int i = retry; i <= downloadRetry; i++) {
+            String id = null;
             try {
-                if (baseDownload.download(ani, item, savePath, torrentFile, ova)) {
-                    return;
-                }
+                id = baseDownload.download(ani, item, savePath, torrentFile, ova);
             } catch (Exception e) {
                 String message = ExceptionUtil.getMessage(e);
                 log.error(message, e);
+            } finally {
+                invalidate();
+            }
+            if (Objects.nonNull(id)) {
+                if (config.getWatchErrorTorrent()) {
+                    String addedId = id;
+                    String hash = FileUtil.mainName(torrentFile);
+                    int count = i;
+                    AddConfirmUtil.confirm(name,
+                            () -> baseDownload.isAdded(addedId, hash, name),
+                            () -> {
+                                log.error("{} 下载失败将进行重试, 当前重试次数为{}次", name, count);
+                                add(ani, item, savePath, torrentFile, count + 1);
+                            });
+                }
+                return;
             }
             log.error("{} 下载失败将进行重试, 当前重试次数为{}次", name, i);
         }
@@ -737,9 +750,74 @@ public class TorrentUtil {
      *
      * @return
      */
-    public static synchronized List<TorrentsInfo> getTorrentsInfos() {
-        ThreadUtil.sleep(1000);
-        return baseDownload.getTorrentsInfos();
+    public static List<TorrentsInfo> getTorrentsInfos() {
+        return new ArrayList<>(getSnapshot().getTorrentsInfos());
+    }
+
+    /**
+     * 获取任务列表快照, 超过有效期后重新获取
+     *
+     * @return
+     */
+    public static Snapshot getSnapshot() {
+        return getSnapshot(SNAPSHOT_TTL);
+    }
+
+    /**
+     * 获取任务列表快照
+     *
+     * @param maxAge 可接受的最大时长 毫秒
+     * @return
+     */
+    public static Snapshot getSnapshot(long maxAge) {
+        Snapshot current = snapshot;
+        if (Objects.nonNull(current) && current.getAge() < maxAge) {
+            return current;
+        }
+        synchronized (SNAPSHOT_LOCK) {
+            current = snapshot;
+            if (Objects.nonNull(current) && current.getAge() < maxAge) {
+                return current;
+            }
+            List<TorrentsInfo> torrentsInfos = baseDownload.getTorrentsInfos();
+            current = new Snapshot(++snapshotVersion, System.currentTimeMillis(), List.copyOf(torrentsInfos));
+            snapshot = current;
+            log.debug("获取任务列表 version: {} 共 {} 个", current.getVersion(), torrentsInfos.size());
+            return current;
+        }
+    }
+
+    /**
+     * 添加、删除、重命名等操作后使快照失效
+     */
+    public static void invalidate() {
+        snapshot = null;
+    }
+
+    /**
+     * 下载位置 -> 订阅, 首次使用时建立
+     */
+    private static volatile Map<String, Ani> aniMap;
+
+    /**
+     * 订阅或设置修改后使下载位置索引失效
+     */
+    public static void invalidateAni() {
+        aniMap = null;
+    }
+
+    private static Map<String, Ani> getAniMap() {
+        Map<String, Ani> map = aniMap;
+        if (Objects.nonNull(map)) {
+            return map;
+        }
+        map = new HashMap<>();
+        for (Ani ani : AniUtil.ANI_LIST) {
+            String path = FilePathUtil.getAbsolutePath(getDownloadPath(ani).get(0));
+            map.putIfAbsent(path, ani);
+        }
+        aniMap = map;
+        return map;
     }
 
     /**
@@ -748,19 +826,9 @@ public class TorrentUtil {
      * @param torrentsInfo
      */
     public static synchronized void notification(TorrentsInfo torrentsInfo) {
-        TorrentsInfo.State state = torrentsInfo.getState();
         String name = torrentsInfo.getName();
 
-        if (Objects.isNull(state)) {
-            return;
-        }
-        if (!List.of(
-                TorrentsInfo.State.queuedUP.name(),
-                TorrentsInfo.State.uploading.name(),
-                TorrentsInfo.State.stalledUP.name(),
-                TorrentsInfo.State.pausedUP.name(),
-                TorrentsInfo.State.stoppedUP.name()
-        ).contains(state.name())) {
+        if (!isDownloaded(torrentsInfo)) {
             return;
         }
         // 添加下载完成标签，防止重复通知
@@ -817,17 +885,46 @@ public class TorrentUtil {
      */
     public static synchronized Ani findAniByDownloadPath(TorrentsInfo torrentsInfo) {
         String downloadDir = torrentsInfo.getDownloadDir();
-        return AniUtil.ANI_LIST
-                .stream()
-                .filter(ani -> {
-                    String path = FilePathUtil.getAbsolutePath(TorrentUtil.getDownloadPath(ani).get(0));
-                    return path.equals(downloadDir);
-                })
+        return Optional.ofNullable(getAniMap().get(downloadDir))
                 .map(ObjectUtil::clone)
-                .findFirst()
                 .orElse(null);
     }
 
+    /**
+     * 处理任务的重命名、下载完成通知与自动删除
+     *
+     * @param torrentsInfo
+     */
+    public static void process(TorrentsInfo torrentsInfo) {
+        Boolean deleteBackRSSOnly = ConfigUtil.CONFIG.getDeleteBackRSSOnly();
+        rename(torrentsInfo);
+        notification(torrentsInfo);
+        if (deleteBackRSSOnly) {
+            return;
+        }
+        delete(torrentsInfo);
+    }
+
+    /**
+     * 是否已下载完成
+     *
+     * @param torrentsInfo
+     * @return
+     */
+    public static Boolean isDownloaded(TorrentsInfo torrentsInfo) {
+        TorrentsInfo.State state = torrentsInfo.getState();
+        if (Objects.isNull(state)) {
+            return false;
+        }
+        return List.of(
+                TorrentsInfo.State.queuedUP.name(),
+                TorrentsInfo.State.uploading.name(),
+                TorrentsInfo.State.stalledUP.name(),
+                TorrentsInfo.State.pausedUP.name(),
+                TorrentsInfo.State.stoppedUP.name()
+        ).contains(state.name());
+    }
+
     /**
      * 判断种子是否可以删除
      *
@@ -886,10 +983,10 @@ public class TorrentUtil {
             }
             log.info("删除已完成任务 {}", name);
         }
-        ThreadUtil.sleep(500);
         List<String> files = torrentsInfo.getFiles().get();
 
         Boolean b = baseDownload.delete(torrentsInfo, deleteFiles);
+        invalidate();
         if (!b) {
             log.error("删除任务失败 {}", name);
             return false;
@@ -904,6 +1001,41 @@ public class TorrentUtil {
     }
 
 
+    /**
+     * 批量强制删除任务
+     *
+     * @param torrentsInfos 任务
+     * @param deleteFiles   删除本地文件
+     */
+    public static synchronized Boolean delete(List<TorrentsInfo> torrentsInfos, Boolean deleteFiles) {
+        if (torrentsInfos.isEmpty()) {
+            return true;
+        }
+        for (TorrentsInfo torrentsInfo : torrentsInfos) {
+            log.info("删除任务 {}", torrentsInfo.getName());
+        }
+
+        Boolean b;
+        try {
+            b = baseDownload.delete(torrentsInfos, deleteFiles);
+        } finally {
+            invalidate();
+        }
+        if (!b) {
+            log.error("删除任务失败 共 {} 个", torrentsInfos.size());
+            return false;
+        }
+        log.info("删除任务成功 共 {} 个", torrentsInfos.size());
+        if (!deleteFiles) {
+            return true;
+        }
+        // 清理空文件夹
+        for (TorrentsInfo torrentsInfo : torrentsInfos) {
+            ClearCacheAction.clearParentFile(new File(torrentsInfo.getDownloadDir() + "/" + torrentsInfo.getName()));
+        }
+        return true;
+    }
+
     /**
      * 删除已完成任务
      *
@@ -940,7 +1072,6 @@ public class TorrentUtil {
             return;
         }
 
-        ThreadUtil.sleep(1000);
         baseDownload.rename(torrentsInfo);
         addTags(torrentsInfo, TorrentsTags.RENAME.getValue());
     }
@@ -953,6 +1084,8 @@ public class TorrentUtil {
             return baseDownload.addTags(torrentsInfo, tags);
         } catch (Exception e) {
             log.error(e.getMessage(), e);
+        } finally {
+            invalidate();
         }
         return false;
     }
@@ -973,6 +1106,30 @@ public class TorrentUtil {
             baseDownload.setSavePath(torrentsInfo, path);
         } catch (Exception e) {
             log.error(e.getMessage(), e);
+        } finally {
+            invalidate();
+        }
+    }
+
+    /**
+     * 批量修改保存位置
+     *
+     * @param torrentsInfos
+     * @param path
+     */
+    public static void setSavePath(List<TorrentsInfo> torrentsInfos, String path) {
+        if (StrUtil.isBlank(path) || torrentsInfos.isEmpty()) {
+            return;
+        }
+        try {
+            for (TorrentsInfo torrentsInfo : torrentsInfos) {
+                log.info("修改保存位置 {} ==> {}", torrentsInfo.getName(), path);
+            }
+            baseDownload.setSavePath(torrentsInfos, path);
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        } finally {
+            invalidate();
         }
     }
 
@@ -986,6 +1143,7 @@ public class TorrentUtil {
                 .map(aClass -> (BaseDownload) ReflectUtil.newInstance(aClass))
                 .findFirst()
                 .ifPresent(TorrentUtil::setBaseDownload);
+        invalidate();
         log.info("下载工具 {}", download);
     }
 
@@ -1013,4 +1171,117 @@ public class TorrentUtil {
         return StrFormatter.format("magnet:?xt=urn:btih:{}", hexHash);
     }
 
+    /**
+     * 任务列表快照
+     * <p>
+     * 获取时按 hash、名称、下载位置与集数建立索引, 避免对每个视频遍历整个任务列表
+     */
+    public static class Snapshot {
+        /**
+         * 版本号, 每次重新获取后递增
+         */
+        @Getter
+        private final long version;
+
+        /**
+         * 获取时间
+         */
+        @Getter
+        private final long time;
+
+        /**
+         * 任务列表, 不可修改
+         */
+        @Getter
+        private final List<TorrentsInfo> torrentsInfos;
+
+        /**
+         * 未下载完成的任务数
+         */
+        @Getter
+        private final long downloadingCount;
+
+        /**
+         * hash -> 任务
+         */
+        private final Map<String, TorrentsInfo> hashMap = new HashMap<>();
+
+        /**
+         * 小写名称 -> 任务
+         */
+        private final Map<String, List<TorrentsInfo>> nameMap = new HashMap<>();
+
+        /**
+         * 下载位置 -> 任务
+         */
+        private final Map<String, List<TorrentsInfo>> downloadDirMap = new HashMap<>();
+
+        /**
+         * 下载位置 + SxxExx -> 任务
+         */
+        private final Map<String, List<TorrentsInfo>> episodeMap = new HashMap<>();
+
+        Snapshot(long version, long time, List<TorrentsInfo> torrentsInfos) {
+            this.version = version;
+            this.time = time;
+            this.torrentsInfos = torrentsInfos;
+
+            long downloadingCount = 0;
+            for (TorrentsInfo torrentsInfo : torrentsInfos) {
+                String name = torrentsInfo.getName();
+                String downloadDir = torrentsInfo.getDownloadDir();
+                hashMap.putIfAbsent(torrentsInfo.getHash(), torrentsInfo);
+                nameMap.computeIfAbsent(name.toLowerCase(), k -> new ArrayList<>()).add(torrentsInfo);
+                downloadDirMap.computeIfAbsent(downloadDir, k -> new ArrayList<>()).add(torrentsInfo);
+                String episode = ReUtil.get(StringEnum.SEASON_REG, name, 0);
+                if (StrUtil.isNotBlank(episode)) {
+                    episodeMap.computeIfAbsent(downloadDir + "\n" + episode, k -> new ArrayList<>()).add(torrentsInfo);
+                }
+                if (!isDownloaded(torrentsInfo)) {
+                    downloadingCount++;
+                }
+            }
+            this.downloadingCount = downloadingCount;
+        }
+
+        public long getAge() {
+            return System.currentTimeMillis() - time;
+        }
+
+        public TorrentsInfo getByHash(String hash) {
+            return hashMap.get(hash);
+        }
+
+        /**
+         * 按名称获取任务, 不区分大小写
+         *
+         * @param name
+         * @return
+         */
+        public TorrentsInfo getByName(String name) {
+            return nameMap.getOrDefault(name.toLowerCase(), List.of())
+                    .stream()
+                    .filter(torrentsInfo -> torrentsInfo.getName().equalsIgnoreCase(name))
+                    .findFirst()
+                    .orElse(null);
+        }
+
+        public List<TorrentsInfo> getByDownloadDir(String downloadDir) {
+            return downloadDirMap.getOrDefault(downloadDir, List.of());
+        }
+
+        /**
+         * 获取下载位置中指定集数的任务
+         *
+         * @param downloadDir 下载位置
+         * @param episode     SxxExx
+         * @return
+         */
+        public List<TorrentsInfo> getByEpisode(String downloadDir, String episode) {
+            if (StrUtil.isBlank(episode)) {
+                return List.of();
+            }
+            return episodeMap.getOrDefault(downloadDir + "\n" + episode, List.of());
+        }
+    }
 }
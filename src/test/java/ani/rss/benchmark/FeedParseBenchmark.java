@@ -0,0 +1,165 @@
+package ani.rss.benchmark;
+
+import ani.rss.entity.Item;
+import ani.rss.enums.StringEnum;
+import ani.rss.util.FeedUtil;
+import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.io.resource.ResourceUtil;
+import cn.hutool.core.util.NumberUtil;
+import cn.hutool.core.util.ReUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.core.util.XmlUtil;
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * rss 解析: 旧的 DOM 解析与 StAX 流式解析对比, 配合 -prof gc 观察每次的内存分配
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeedParseBenchmark {
+
+    @Param({Fixtures.MIKAN_20, Fixtures.NYAA_75, Fixtures.MIKAN_500})
+    public String fixture;
+
+    private byte[] bytes;
+    private String xml;
+
+    @Setup
+    public void setup() {
+        bytes = ResourceUtil.readBytes(fixture);
+        xml = new String(bytes, StandardCharsets.UTF_8);
+        if (!parseDom(xml).equals(stax())) {
+            throw new IllegalStateException("解析结果不一致 " + fixture);
+        }
+    }
+
+    @Benchmark
+    public List<Item> dom() {
+        return parseDom(xml);
+    }
+
+    @Benchmark
+    public List<Item> stax() {
+        return FeedUtil.parse(IoUtil.toStream(bytes));
+    }
+
+    /**
+     * 原 ItemsUtil 中基于 DOM 的解析
+     */
+    private static List<Item> parseDom(String xml) {
+        List<Item> items = new ArrayList<>();
+
+        Document document = XmlUtil.readXML(xml);
+        Node channel = document.getElementsByTagName("channel").item(0);
+        NodeList childNodes = channel.getChildNodes();
+
+        for (int i = 0; i < childNodes.getLength(); i++) {
+            Node item = childNodes.item(i);
+            String nodeName = item.getNodeName();
+            if (!nodeName.equals("item")) {
+                continue;
+            }
+            String itemTitle = "";
+            String torrent = "";
+            String length = "";
+            String infoHash = "";
+
+            String size = "0MB";
+
+            Date pubDate = null;
+
+            NodeList itemChildNodes = item.getChildNodes();
+            for (int j = 0; j < itemChildNodes.getLength(); j++) {
+                Node itemChild = itemChildNodes.item(j);
+                String itemChildNodeName = itemChild.getNodeName();
+                if (itemChildNodeName.equals("title")) {
+                    itemTitle = itemChild.getTextContent();
+                }
+
+                if (itemChildNodeName.equals("enclosure")) {
+                    NamedNodeMap attributes = itemChild.getAttributes();
+                    String url = attributes.getNamedItem("url").getNodeValue();
+                    length = Optional.of(attributes)
+                            .map(it -> it.getNamedItem("length"))
+                            .map(Node::getNodeValue)
+                            .orElse("1");
+
+                    if (ReUtil.contains(StringEnum.MAGNET_REG, url)) {
+                        torrent = url;
+                        infoHash = ReUtil.get(StringEnum.MAGNET_REG, url, 1);
+                    } else {
+                        torrent = url;
+                        infoHash = FileUtil.mainName(torrent);
+                    }
+                }
+
+                if ("guid".equals(itemChildNodeName)) {
+                    if (ReUtil.isMatch("^([a-z]|[0-9])+$", itemChild.getTextContent())) {
+                        infoHash = itemChild.getTextContent();
+                    }
+                }
+
+                if ("nyaa:infoHash".equals(itemChildNodeName)) {
+                    infoHash = itemChild.getTextContent();
+                }
+                if (itemChildNodeName.equals("nyaa:size")) {
+                    size = itemChild.getTextContent();
+                }
+
+                if (itemChildNodeName.equals("pubDate")) {
+                    try {
+                        pubDate = DateUtil.parse(itemChild.getTextContent());
+                    } catch (Exception ignored) {
+                    }
+                }
+
+                if (itemChildNodeName.equals("torrent")) {
+                    try {
+                        pubDate = DateUtil.parse(XmlUtil.getElement((Element) itemChild, "pubDate").getTextContent());
+                    } catch (Exception ignored) {
+                    }
+                }
+
+                if (itemChildNodeName.equals("link")) {
+                    String link = itemChild.getTextContent();
+                    if (!link.endsWith(".torrent")) {
+                        continue;
+                    }
+                    torrent = link;
+                }
+            }
+
+            if (StrUtil.isBlank(torrent)) {
+                continue;
+            }
+
+            if (StrUtil.isNotBlank(length) && size.equals("0MB")) {
+                Double l = Long.parseLong(length) / 1024.0 / 1024;
+                size = NumberUtil.decimalFormat("0.00", l) + "MB";
+            }
+
+            if (StrUtil.isNotBlank(infoHash)) {
+                infoHash = infoHash.toLowerCase();
+            }
+
+            items.add(new Item()
+                    .setTitle(itemTitle)
+                    .setTorrent(torrent)
+                    .setInfoHash(infoHash)
+                    .setSize(size)
+                    .setPubDate(pubDate));
+        }
+        return items;
+    }
+}
@@ -0,0 +1,67 @@
+package ani.rss.benchmark;
+
+import ani.rss.entity.Ani;
+import ani.rss.entity.Config;
+import ani.rss.entity.Item;
+import ani.rss.util.ConfigUtil;
+import ani.rss.util.FeedUtil;
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.io.resource.ResourceUtil;
+import cn.hutool.core.util.ObjectUtil;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 基准测试使用的订阅与 rss 样本
+ */
+class Fixtures {
+
+    /**
+     * 录制的 rss, 分别为 20、75、500 条
+     */
+    static final String MIKAN_20 = "feed/mikan-20.xml";
+    static final String NYAA_75 = "feed/nyaa-75.xml";
+    static final String MIKAN_500 = "feed/mikan-500.xml";
+
+    static String xml(String fixture) {
+        return ResourceUtil.readUtf8Str(fixture);
+    }
+
+    static List<Item> entries(String fixture) {
+        return FeedUtil.parse(xml(fixture));
+    }
+
+    /**
+     * 修改全局设置, 返回修改前的副本, 在 @TearDown 中通过 {@link #restore(Config)} 还原
+     */
+    static Config configure(Consumer<Config> consumer) {
+        Config saved = ObjectUtil.clone(ConfigUtil.CONFIG);
+        consumer.accept(ConfigUtil.CONFIG);
+        return saved;
+    }
+
+    static void restore(Config saved) {
+        BeanUtil.copyProperties(saved, ConfigUtil.CONFIG);
+    }
+
+    /**
+     * 基准测试使用的设置
+     */
+    static Config configure() {
+        return configure(config -> config
+                .setOmit(true)
+                .setSkip5(false));
+    }
+
+    /**
+     * 使用默认设置的订阅, 重命名模版不涉及网络请求
+     */
+    static Ani ani() {
+        return Ani.bulidAni()
+                .setTitle("葬送的芙莉莲")
+                .setSeason(1)
+                .setSubgroup("字幕组")
+                .setOmit(true);
+    }
+}
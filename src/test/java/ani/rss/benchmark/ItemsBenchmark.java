@@ -0,0 +1,100 @@
+package ani.rss.benchmark;
+
+import ani.rss.entity.Ani;
+import ani.rss.entity.Config;
+import ani.rss.entity.Item;
+import ani.rss.util.FeedUtil;
+import ani.rss.util.ItemsUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * rss 过滤、重命名与集数统计
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItemsBenchmark {
+
+    @Param({Fixtures.MIKAN_20, Fixtures.NYAA_75, Fixtures.MIKAN_500})
+    public String fixture;
+
+    private Config saved;
+    private String xml;
+    private Ani ani;
+
+    /**
+     * 已通过过滤与重命名的条目
+     */
+    private List<Item> items;
+
+    /**
+     * 主rss与两个备用rss
+     */
+    private Ani backRssAni;
+    private Map<String, FeedUtil.Feed> feeds;
+
+    @Setup
+    public void setup() {
+        saved = Fixtures.configure(config -> config
+                .setOmit(true)
+                .setSkip5(false)
+                .setBackRss(true));
+        xml = Fixtures.xml(fixture);
+        ani = Fixtures.ani();
+        items = ItemsUtil.getItems(ani, xml, new Item().setSubgroup(ani.getSubgroup()))
+                .stream()
+                .peek(item -> item.setMaster(true))
+                .toList();
+
+        List<Item> entries = Fixtures.entries(fixture);
+        backRssAni = Fixtures.ani()
+                .setUrl("https://example.com/main")
+                .setBackRssList(List.of(
+                        new Ani.BackRss().setLabel("备用1").setUrl("https://example.com/back1").setOffset(0),
+                        new Ani.BackRss().setLabel("备用2").setUrl("https://example.com/back2").setOffset(-12)
+                ));
+        feeds = new LinkedHashMap<>();
+        for (String url : List.of("https://example.com/main", "https://example.com/back1", "https://example.com/back2")) {
+            feeds.put(url, new FeedUtil.Feed().setUrl(url).setItems(entries));
+        }
+    }
+
+    @Benchmark
+    public List<Item> getItems() {
+        return ItemsUtil.getItems(ani, xml, new Item().setSubgroup(ani.getSubgroup()));
+    }
+
+    /**
+     * 含备用rss, 配合 -prof gc 观察每次的内存分配
+     */
+    @Benchmark
+    public List<Item> getItemsWithBackRss() {
+        return ItemsUtil.getItems(backRssAni, feeds);
+    }
+
+    /**
+     * 缺集检测
+     */
+    @Benchmark
+    public List<Integer> omitList() {
+        return ItemsUtil.omitList(ani, items);
+    }
+
+    @Benchmark
+    public int currentEpisodeNumber() {
+        return ItemsUtil.currentEpisodeNumber(ani, items);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.restore(saved);
+    }
+}
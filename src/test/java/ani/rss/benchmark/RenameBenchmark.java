@@ -0,0 +1,83 @@
+package ani.rss.benchmark;
+
+import ani.rss.entity.Ani;
+import ani.rss.entity.Config;
+import ani.rss.entity.Item;
+import ani.rss.util.RenameUtil;
+import cn.hutool.core.util.ReUtil;
+import cn.hutool.core.util.StrUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重命名, 每次调用处理样本中的全部标题
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenameBenchmark {
+
+    @Param({Fixtures.NYAA_75, Fixtures.MIKAN_500})
+    public String fixture;
+
+    private Config saved;
+    private List<Item> items;
+    private Ani ani;
+
+    @Setup
+    public void setup() {
+        saved = Fixtures.configure();
+        ani = Fixtures.ani();
+        items = Fixtures.entries(fixture)
+                .stream()
+                .map(entry -> new Item()
+                        .setTitle(entry.getTitle())
+                        .setReName(entry.getTitle())
+                        .setSubgroup(ani.getSubgroup())
+                        .setEpisode(1.0))
+                .toList();
+    }
+
+    @Benchmark
+    public void rename(Blackhole blackhole) {
+        for (Item item : items) {
+            blackhole.consume(RenameUtil.rename(ani, item));
+        }
+    }
+
+    @Benchmark
+    public void getName(Blackhole blackhole) {
+        for (Item item : items) {
+            blackhole.consume(RenameUtil.getName(item.getTitle()));
+        }
+    }
+
+    @Benchmark
+    public void getEpisodeStr(Blackhole blackhole) {
+        for (Item item : items) {
+            blackhole.consume(RenameUtil.getEpisodeStr(item.getTitle()));
+        }
+    }
+
+    /**
+     * 原 RenameUtil.rename 中基于正则的集数识别, 与 getEpisodeStr 对比
+     */
+    @Benchmark
+    public void getEpisodeStrRegex(Blackhole blackhole) {
+        for (Item item : items) {
+            String e = ReUtil.get(RenameUtil.REG_STR, item.getTitle(), 2);
+            blackhole.consume(StrUtil.isBlank(e) ? null : ReUtil.get("\\d+(\\.5)?", e, 0));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.restore(saved);
+    }
+}
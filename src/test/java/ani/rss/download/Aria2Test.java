@@ -0,0 +1,146 @@
+package ani.rss.download;
+
+import ani.rss.entity.Config;
+import ani.rss.entity.TorrentsInfo;
+import ani.rss.util.GsonStatic;
+import cn.hutool.core.io.IoUtil;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Aria2 通知处理, 使用本地 json-rpc 桩服务
+ */
+class Aria2Test {
+
+    /**
+     * gid -> status
+     */
+    private static final Map<String, String> STATUS = Map.of(
+            "seeding", "active",
+            "done", "complete",
+            "removed", "removed"
+    );
+
+    private final List<String> methods = new CopyOnWriteArrayList<>();
+    private HttpServer server;
+    private Aria2 aria2;
+
+    @BeforeEach
+    void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/jsonrpc", this::handle);
+        server.start();
+
+        aria2 = new Aria2();
+        Config config = new Config()
+                .setHost("http://127.0.0.1:" + server.getAddress().getPort())
+                .setPassword("secret");
+        assertTrue(aria2.login(config), "登录失败");
+        methods.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void btDownloadComplete() {
+        // 做种中, 交由轮询处理
+        assertNull(aria2.onNotification("aria2.onBtDownloadComplete", "seeding"), "做种中不应处理");
+        assertEquals(List.of(), methods, "不应请求任务状态");
+    }
+
+    @Test
+    void downloadComplete() {
+        TorrentsInfo torrentsInfo = aria2.onNotification("aria2.onDownloadComplete", "done");
+        assertNotNull(torrentsInfo, "做种结束应处理");
+        assertEquals("done", torrentsInfo.getId(), "gid");
+        assertEquals(TorrentsInfo.State.pausedUP, torrentsInfo.getState(), "状态");
+        assertEquals(List.of("aria2.tellStatus"), methods, "请求");
+    }
+
+    @Test
+    void downloadStop() {
+        assertNull(aria2.onNotification("aria2.onDownloadStop", "removed"), "未完成的任务不应处理");
+        assertNotNull(aria2.onNotification("aria2.onDownloadStop", "done"), "已完成的任务应处理");
+    }
+
+    @Test
+    void downloadError() {
+        assertNull(aria2.onNotification("aria2.onDownloadError", "done"), "出错的任务不应处理");
+        assertEquals(List.of(), methods, "不应请求任务状态");
+    }
+
+    @Test
+    void isAdded() {
+        assertTrue(aria2.isAdded("seeding", "", ""), "任务存在");
+        assertFalse(aria2.isAdded("missing", "", ""), "任务不存在");
+        assertEquals(List.of("aria2.tellStatus", "aria2.tellStatus"), methods, "按 gid 查询");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            // WebSocket 握手, 不支持
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        JsonObject request = GsonStatic.fromJson(
+                IoUtil.read(exchange.getRequestBody(), StandardCharsets.UTF_8), JsonObject.class);
+        String method = request.get("method").getAsString();
+        methods.add(method);
+
+        JsonObject response = new JsonObject();
+        response.addProperty("jsonrpc", "2.0");
+        response.add("id", request.get("id"));
+
+        JsonObject result = new JsonObject();
+        if (method.equals("aria2.tellStatus")) {
+            String gid = request.getAsJsonArray("params").get(1).getAsString();
+            if (!STATUS.containsKey(gid)) {
+                response.add("error", GsonStatic.fromJson("""
+                        {"code": 1, "message": "GID %s is not found"}
+                        """.formatted(gid), JsonObject.class));
+                send(exchange, 400, response);
+                return;
+            }
+            result = GsonStatic.fromJson("""
+                    {
+                      "gid": "%s",
+                      "infoHash": "0123456789abcdef0123456789abcdef01234567",
+                      "status": "%s",
+                      "dir": "/downloads",
+                      "totalLength": "100",
+                      "completedLength": "100",
+                      "files": [{"path": "/downloads/a.mkv"}],
+                      "bittorrent": {"info": {"name": "a.mkv"}}
+                    }
+                    """.formatted(gid, STATUS.get(gid)), JsonObject.class);
+        }
+        response.add("result", result);
+        send(exchange, 200, response);
+    }
+
+    private static void send(HttpExchange exchange, int status, JsonObject response) throws IOException {
+        byte[] bytes = GsonStatic.toJson(response).getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
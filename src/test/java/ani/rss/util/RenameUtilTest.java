@@ -0,0 +1,40 @@
+package ani.rss.util;
+
+import cn.hutool.core.io.resource.ResourceUtil;
+import cn.hutool.core.util.StrUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 集数识别
+ * <p>
+ * episode/titles.txt 每行为 标题\t集数, 未识别时集数为空
+ */
+class RenameUtilTest {
+
+    @Test
+    void getEpisodeStr() {
+        List<String> errors = new ArrayList<>();
+        int count = 0;
+        for (String line : ResourceUtil.readUtf8Str("episode/titles.txt").split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            int i = line.lastIndexOf('\t');
+            String title = line.substring(0, i);
+            String expected = StrUtil.emptyToNull(line.substring(i + 1));
+            String episode = RenameUtil.getEpisodeStr(title);
+            if (!StrUtil.equals(expected, episode)) {
+                errors.add(StrUtil.format("{} 应为 {} 实际 {}", title, expected, episode));
+            }
+            count++;
+        }
+        assertFalse(count == 0, "titles.txt 为空");
+        assertEquals(List.of(), errors, "集数识别不一致");
+    }
+}